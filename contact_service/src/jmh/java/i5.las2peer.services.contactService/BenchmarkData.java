@@ -0,0 +1,34 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic data shaped like the data the service stores.
+ */
+final class BenchmarkData {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * @param random Source of randomness.
+	 * @return A random agent identifier with the length of a las2peer agent id (128 hex characters).
+	 */
+	static String agentId(Random random) {
+		char[] id = new char[128];
+		for (int i = 0; i < id.length; i++) {
+			id[i] = HEX[random.nextInt(16)];
+		}
+		return new String(id);
+	}
+
+	/**
+	 * @param random Source of randomness.
+	 * @return A random login name.
+	 */
+	static String loginName(Random random) {
+		return "user" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+	}
+}
@@ -0,0 +1,90 @@
+package i5.las2peer.services.contactService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the Java serialization of {@link ContactContainer}s as it happens on every envelope store and request,
+ * and the membership checks on the contained user list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactContainerBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	public int size;
+
+	private ContactContainer container;
+	private byte[] serialized;
+	private String presentId;
+	private String absentId;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		container = new ContactContainer();
+		for (int i = 0; i < size; i++) {
+			String id = BenchmarkData.agentId(random);
+			container.addContact(id);
+			if (i % 10 == 0) {
+				container.addGroup("group" + i, id);
+			}
+			if (i == size / 2) {
+				presentId = id;
+			}
+		}
+		absentId = BenchmarkData.agentId(random);
+		serialized = serialize(container);
+	}
+
+	@Benchmark
+	public byte[] serializeContainer() throws IOException {
+		return serialize(container);
+	}
+
+	@Benchmark
+	public Object deserializeContainer() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	public boolean containsPresentId() {
+		return container.getUserList().contains(presentId);
+	}
+
+	@Benchmark
+	public boolean containsAbsentId() {
+		return container.getUserList().contains(absentId);
+	}
+
+	private static byte[] serialize(ContactContainer container) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(container);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,95 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks mutual-contact queries on the {@link ContactGraph} against intersecting the string sets of two
+ * {@link ContactContainer}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContactGraphBenchmark {
+
+	@Param({ "100", "1000" })
+	public int contacts;
+
+	private static final int USERS = 10000;
+
+	private ContactGraph graph;
+	private ContactContainer first;
+	private ContactContainer second;
+	private String firstId;
+	private String secondId;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		List<String> users = new ArrayList<>(USERS);
+		for (int i = 0; i < USERS; i++) {
+			users.add(BenchmarkData.agentId(random));
+		}
+		graph = new ContactGraph();
+		for (int u = 0; u < USERS; u++) {
+			Set<String> list = new HashSet<>();
+			while (list.size() < contacts) {
+				list.add(users.get(random.nextInt(USERS)));
+			}
+			graph.setContacts(users.get(u), list);
+			if (u < 2) {
+				ContactContainer cc = new ContactContainer();
+				for (String id : list) {
+					cc.addContact(id);
+				}
+				if (u == 0) {
+					first = cc;
+				} else {
+					second = cc;
+				}
+			}
+		}
+		firstId = users.get(0);
+		secondId = users.get(1);
+	}
+
+	@Benchmark
+	public int graphCountMutual() {
+		return graph.countMutualContacts(firstId, secondId);
+	}
+
+	@Benchmark
+	public List<String> graphMutualContacts() {
+		return graph.getMutualContacts(firstId, secondId);
+	}
+
+	@Benchmark
+	public int containerIntersection() {
+		int n = 0;
+		for (String id : first.getUserList()) {
+			if (second.getUserList().contains(id)) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
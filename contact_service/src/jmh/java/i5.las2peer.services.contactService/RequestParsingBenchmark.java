@@ -0,0 +1,43 @@
+package i5.las2peer.services.contactService;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minidev.json.parser.ParseException;
+
+/**
+ * Benchmarks parsing the request bodies of updateUserInformationREST and updateUserPermissionREST.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+	private final String userInformation = "{firstName:\"Vorname\",lastName:\"Nachname\","
+			+ "userImage:\"https://example.org/images/3f2a9c.png\"}";
+	private final String permissions = "{firstName:true,lastName:false,userImage:true}";
+
+	@Benchmark
+	public HashMap<String, Serializable> parseUserInformation() throws ParseException {
+		return ContactService.parseUserInformation(userInformation);
+	}
+
+	@Benchmark
+	public HashMap<String, Boolean> parsePermissions() throws ParseException {
+		return ContactService.parsePermissions(permissions);
+	}
+}
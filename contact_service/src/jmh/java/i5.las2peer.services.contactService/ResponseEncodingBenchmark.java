@@ -0,0 +1,90 @@
+package i5.las2peer.services.contactService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Benchmarks encoding a { id:name } result as JSON, compressed JSON and CBOR. The encoded sizes are printed at setup,
+ * so the encode cost of each variant can be compared with the bytes it saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int size;
+
+	private JSONObject result;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		result = new JSONObject();
+		for (int i = 0; i < size; i++) {
+			result.put(BenchmarkData.agentId(random), BenchmarkData.loginName(random));
+		}
+		System.out.println("encoded bytes for " + size + " entries: json=" + json().length + " gzip="
+				+ jsonGzip().length + " deflate=" + jsonDeflate().length + " cbor=" + cbor().length + " cbor+gzip="
+				+ cborGzip().length);
+	}
+
+	@Benchmark
+	public byte[] json() {
+		return result.toJSONString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] jsonGzip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(json());
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] jsonDeflate() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+			out.write(json());
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] cbor() {
+		return Cbor.encode(result);
+	}
+
+	@Benchmark
+	public byte[] cborGzip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			Cbor.write(result, out);
+		}
+		return bytes.toByteArray();
+	}
+}
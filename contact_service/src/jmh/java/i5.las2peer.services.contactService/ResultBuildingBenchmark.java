@@ -0,0 +1,56 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Benchmarks building the { id:name } results of getContacts and getAddressBook.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultBuildingBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int size;
+
+	private String[] ids;
+	private String[] names;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		ids = new String[size];
+		names = new String[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = BenchmarkData.agentId(random);
+			names[i] = BenchmarkData.loginName(random);
+		}
+	}
+
+	@Benchmark
+	public String buildIdNameResult() {
+		JSONObject result = new JSONObject();
+		for (int i = 0; i < ids.length; i++) {
+			result.put(ids[i], names[i]);
+		}
+		return result.toJSONString();
+	}
+}
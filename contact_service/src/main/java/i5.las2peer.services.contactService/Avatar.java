@@ -0,0 +1,238 @@
+package i5.las2peer.services.contactService;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A user image stored once under the hash of its bytes. Profiles only hold a reference of the form
+ * <code>sha256:&lt;hash&gt;</code> instead of the image itself.
+ *
+ * Only PNG, JPEG, GIF and WebP images are accepted. Their type is taken from the leading bytes of the image, never from
+ * the type a client declared, so an image is always served with a type browsers render as image.
+ */
+public class Avatar implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String REFERENCE_PREFIX = "sha256:";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Images with more pixels get no thumbnail, decoding them would take too much memory.
+	 */
+	public static final long MAX_THUMBNAIL_PIXELS = 4096L * 4096L;
+
+	private final String mediaType;
+	private final byte[] data;
+	private byte[] thumbnail;
+
+	/**
+	 * @param mediaType Media type of the image as detected by {@link #detectMediaType(byte[])}, e.g. image/png.
+	 * @param data The image.
+	 */
+	public Avatar(String mediaType, byte[] data) {
+		this.mediaType = mediaType;
+		this.data = data;
+	}
+
+	/**
+	 * Decodes an image given as base64 data URL, e.g. <code>data:image/png;base64,iVBORw0...</code>. The media type of
+	 * the image is detected from its bytes.
+	 *
+	 * @param value Value of the userImage field.
+	 * @return The image or null if the value is no base64 data URL of a PNG, JPEG, GIF or WebP image.
+	 */
+	public static Avatar fromDataUrl(String value) {
+		if (value == null || !value.startsWith("data:")) {
+			return null;
+		}
+		int comma = value.indexOf(',');
+		if (comma < 0) {
+			return null;
+		}
+		String header = value.substring(5, comma).toLowerCase(Locale.ROOT);
+		if (!header.endsWith(";base64") || !header.startsWith("image/")) {
+			return null;
+		}
+		try {
+			byte[] data = Base64.getMimeDecoder().decode(value.substring(comma + 1));
+			String mediaType = detectMediaType(data);
+			return mediaType == null ? null : new Avatar(mediaType, data);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Detects the type of an image from its leading bytes.
+	 *
+	 * @param data The image.
+	 * @return image/png, image/jpeg, image/gif or image/webp, null for any other content.
+	 */
+	public static String detectMediaType(byte[] data) {
+		if (startsWith(data, 0, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n')) {
+			return "image/png";
+		}
+		if (startsWith(data, 0, 0xff, 0xd8, 0xff)) {
+			return "image/jpeg";
+		}
+		if (startsWith(data, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(data, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+			return "image/gif";
+		}
+		if (startsWith(data, 0, 'R', 'I', 'F', 'F') && startsWith(data, 8, 'W', 'E', 'B', 'P')) {
+			return "image/webp";
+		}
+		return null;
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int... magic) {
+		if (data.length < offset + magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if ((data[offset + i] & 0xff) != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param value Value of the userImage field.
+	 * @return The hash the value refers to or null if it is no reference.
+	 */
+	public static String hashOf(String value) {
+		if (value == null || !value.startsWith(REFERENCE_PREFIX)) {
+			return null;
+		}
+		String hash = value.substring(REFERENCE_PREFIX.length());
+		return isHash(hash) ? hash : null;
+	}
+
+	/**
+	 * @param hash A string.
+	 * @return True if the string has the form of a hash of an image.
+	 */
+	public static boolean isHash(String hash) {
+		if (hash.length() != 64) {
+			return false;
+		}
+		for (int i = 0; i < hash.length(); i++) {
+			char c = hash.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return SHA-256 hash of the image in hex.
+	 */
+	public String getHash() {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return The value referring to this image in the userImage field.
+	 */
+	public String getReference() {
+		return REFERENCE_PREFIX + getHash();
+	}
+
+	/**
+	 * @return Media type of the image, detected from its bytes. Null if the image is of no accepted type, which is
+	 *         only possible for images stored before the type was detected.
+	 */
+	public String getMediaType() {
+		return detectMediaType(data);
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return The thumbnail in PNG format or null if none was created.
+	 */
+	public byte[] getThumbnail() {
+		return thumbnail;
+	}
+
+	/**
+	 * Creates a PNG thumbnail whose longer side has the given size. Images which cannot be decoded, are already small
+	 * or have more than {@link #MAX_THUMBNAIL_PIXELS} pixels get no thumbnail. The size is read from the image header
+	 * before the image is decoded.
+	 *
+	 * @param size Size of the longer side in pixels.
+	 */
+	public void createThumbnail(int size) {
+		try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				return;
+			}
+			ImageReader reader = readers.next();
+			BufferedImage image;
+			try {
+				reader.setInput(in, true, true);
+				int sourceWidth = reader.getWidth(0);
+				int sourceHeight = reader.getHeight(0);
+				if ((long) sourceWidth * sourceHeight > MAX_THUMBNAIL_PIXELS
+						|| Math.max(sourceWidth, sourceHeight) <= size) {
+					return;
+				}
+				image = reader.read(0);
+			} finally {
+				reader.dispose();
+			}
+			double scale = (double) size / Math.max(image.getWidth(), image.getHeight());
+			int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+			int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+			BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = scaled.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(image, 0, 0, width, height, null);
+			g.dispose();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(scaled, "png", out);
+			thumbnail = out.toByteArray();
+		} catch (IOException | RuntimeException e) {
+			thumbnail = null;
+		}
+	}
+
+	/**
+	 * @return Number of bytes the image and its thumbnail take in memory.
+	 */
+	public long getSize() {
+		return data.length + (thumbnail == null ? 0 : thumbnail.length)
+				+ mediaType.getBytes(StandardCharsets.UTF_8).length;
+	}
+}
@@ -0,0 +1,82 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently used images in memory, bounded by their total size in bytes. When the budget is exceeded, the least
+ * recently used images are dropped. Images are immutable since they are stored by hash, so entries never expire.
+ */
+public class AvatarCache {
+
+	private final LinkedHashMap<String, Avatar> avatars = new LinkedHashMap<>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes;
+
+	/**
+	 * @param maxBytes Maximum total size of the cached images.
+	 */
+	public AvatarCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param hash Hash of an image.
+	 * @return The image or null if it is not cached.
+	 */
+	public synchronized Avatar get(String hash) {
+		return avatars.get(hash);
+	}
+
+	/**
+	 * Caches an image. Images larger than the whole budget are not cached.
+	 *
+	 * @param hash Hash of the image.
+	 * @param avatar The image.
+	 */
+	public synchronized void put(String hash, Avatar avatar) {
+		long size = avatar.getSize();
+		if (size > maxBytes) {
+			return;
+		}
+		Avatar previous = avatars.put(hash, avatar);
+		if (previous != null) {
+			bytes -= previous.getSize();
+		}
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Changes the budget. If the cached images exceed it, the least recently used ones are dropped.
+	 *
+	 * @param maxBytes Maximum total size of the cached images.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Avatar>> it = avatars.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().getSize();
+			it.remove();
+		}
+	}
+
+	/**
+	 * @return Total size of the cached images in bytes.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return Number of cached images.
+	 */
+	public synchronized int size() {
+		return avatars.size();
+	}
+}
@@ -0,0 +1,20 @@
+package i5.las2peer.services.contactService;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+
+/**
+ * Starts the background work the service recovered at startup. Envelope operations need the context of a request, so
+ * the work is handed to the executor of the first request reaching the node after a restart. Later requests return
+ * right away.
+ */
+@Priority(Priorities.USER)
+public class BackgroundWorkFilter implements ContainerRequestFilter {
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		((ContactService) i5.las2peer.api.Context.get().getService()).resumeBackgroundWork();
+	}
+}
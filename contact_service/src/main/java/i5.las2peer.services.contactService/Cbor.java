@@ -0,0 +1,127 @@
+package i5.las2peer.services.contactService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Encodes the results of the service (maps, lists, strings, numbers and booleans) in the Concise Binary Object
+ * Representation (CBOR, RFC 8949). Only definite-length items are written.
+ */
+public final class Cbor {
+
+	/**
+	 * Media type of CBOR encoded bodies.
+	 */
+	public static final String MEDIA_TYPE = "application/cbor";
+
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1;
+	private static final int TEXT = 3;
+	private static final int ARRAY = 4;
+	private static final int MAP = 5;
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int DOUBLE = 0xfb;
+
+	private Cbor() {
+	}
+
+	/**
+	 * @param value Value to encode.
+	 * @return The encoded value.
+	 */
+	public static byte[] encode(Object value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(value, bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes an encoded value. Values of other types than maps, collections, arrays of objects, numbers and booleans
+	 * are written as their string representation.
+	 *
+	 * @param value Value to encode.
+	 * @param out Stream to write to.
+	 * @throws IOException If writing fails.
+	 */
+	public static void write(Object value, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		writeItem(value, data);
+		data.flush();
+	}
+
+	private static void writeItem(Object value, DataOutputStream out) throws IOException {
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			long n = ((Number) value).longValue();
+			if (n >= 0) {
+				writeHead(UNSIGNED, n, out);
+			} else {
+				writeHead(NEGATIVE, -1 - n, out);
+			}
+		} else if (value instanceof Number) {
+			out.write(DOUBLE);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHead(MAP, map.size(), out);
+			for (Map.Entry<?, ?> e : map.entrySet()) {
+				writeText(String.valueOf(e.getKey()), out);
+				writeItem(e.getValue(), out);
+			}
+		} else if (value instanceof Collection) {
+			Collection<?> list = (Collection<?>) value;
+			writeHead(ARRAY, list.size(), out);
+			for (Object item : list) {
+				writeItem(item, out);
+			}
+		} else if (value instanceof Object[]) {
+			Object[] list = (Object[]) value;
+			writeHead(ARRAY, list.length, out);
+			for (Object item : list) {
+				writeItem(item, out);
+			}
+		} else {
+			writeText(value.toString(), out);
+		}
+	}
+
+	private static void writeText(String text, DataOutputStream out) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		writeHead(TEXT, bytes.length, out);
+		out.write(bytes);
+	}
+
+	private static void writeHead(int majorType, long argument, DataOutputStream out) throws IOException {
+		int major = majorType << 5;
+		if (argument < 24) {
+			out.write(major | (int) argument);
+		} else if (argument <= 0xffL) {
+			out.write(major | 24);
+			out.write((int) argument);
+		} else if (argument <= 0xffffL) {
+			out.write(major | 25);
+			out.writeShort((int) argument);
+		} else if (argument <= 0xffffffffL) {
+			out.write(major | 26);
+			out.writeInt((int) argument);
+		} else {
+			out.write(major | 27);
+			out.writeLong(argument);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package i5.las2peer.services.contactService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+/**
+ * Writes maps and collections, e.g. the {@link net.minidev.json.JSONObject} results of the list endpoints, as CBOR
+ * when a client asks for {@link Cbor#MEDIA_TYPE} in its Accept header. The plain text messages of error responses are
+ * written as CBOR text strings.
+ */
+@Produces(Cbor.MEDIA_TYPE)
+public class CborBodyWriter implements MessageBodyWriter<Object> {
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type) || type == String.class;
+	}
+
+	@Override
+	public long getSize(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		Cbor.write(t, entityStream);
+	}
+}
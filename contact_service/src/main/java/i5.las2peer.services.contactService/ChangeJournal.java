@@ -0,0 +1,233 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Bounded, node-local journal of the changes made through this node: contacts added and removed, groups created and
+ * left, group members added and removed and users joining or leaving the address book. Every change gets a version
+ * number and an audience, the agents allowed to see it.
+ *
+ * Clients pass the version token of the last change they have seen and get the changes after it. The journal keeps
+ * only the most recent changes; if a client's token is older than the oldest change kept, or was issued by another
+ * journal (another node or before a restart), it has to resync completely.
+ */
+public class ChangeJournal {
+
+	public static final String CONTACT = "contact";
+	public static final String GROUP = "group";
+	public static final String MEMBER = "member";
+	public static final String ADDRESS_BOOK = "addressbook";
+	public static final String ADD = "add";
+	public static final String REMOVE = "remove";
+
+	/**
+	 * A single change.
+	 */
+	public static class Change {
+		private final long version;
+		private final String type;
+		private final String operation;
+		private final String agentId;
+		private final String group;
+		private final Set<String> audience;
+
+		Change(long version, String type, String operation, String agentId, String group, Set<String> audience) {
+			this.version = version;
+			this.type = type;
+			this.operation = operation;
+			this.agentId = agentId;
+			this.group = group;
+			this.audience = audience;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public String getAgentId() {
+			return agentId;
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		/**
+		 * @return The agents allowed to see this change, null if everybody may see it.
+		 */
+		public Set<String> getAudience() {
+			return audience;
+		}
+
+		/**
+		 * @param agentId Id of an agent.
+		 * @return True if the agent may see this change.
+		 */
+		public boolean isVisibleTo(String agentId) {
+			return audience == null || audience.contains(agentId);
+		}
+
+		public JSONObject toJSON(String epoch) {
+			JSONObject o = new JSONObject();
+			o.put("version", epoch + ":" + version);
+			o.put("type", type);
+			o.put("op", operation);
+			o.put("id", agentId);
+			if (group != null) {
+				o.put("group", group);
+			}
+			return o;
+		}
+	}
+
+	/**
+	 * Changes after a version, as far as visible to one agent.
+	 */
+	public static class Page {
+		private final List<Change> changes;
+		private final String version;
+		private final boolean resync;
+		private final boolean more;
+
+		Page(List<Change> changes, String version, boolean resync, boolean more) {
+			this.changes = changes;
+			this.version = version;
+			this.resync = resync;
+			this.more = more;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+
+		/**
+		 * @return Token to pass as since value in the next request.
+		 */
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return True if the changes since the requested version are no longer known and the client has to
+		 *         download its lists completely.
+		 */
+		public boolean isResync() {
+			return resync;
+		}
+
+		/**
+		 * @return True if there are more changes than returned in this page.
+		 */
+		public boolean hasMore() {
+			return more;
+		}
+	}
+
+	private final String epoch;
+	private final Change[] entries;
+	// version of the newest change, changes are numbered from 1
+	private long latest;
+
+	/**
+	 * @param capacity Number of changes kept.
+	 */
+	public ChangeJournal(int capacity) {
+		this.epoch = Long.toString(System.currentTimeMillis(), 36);
+		this.entries = new Change[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Records a change.
+	 *
+	 * @param type One of {@link #CONTACT}, {@link #GROUP}, {@link #MEMBER} or {@link #ADDRESS_BOOK}.
+	 * @param operation {@link #ADD} or {@link #REMOVE}.
+	 * @param agentId Id of the added or removed agent.
+	 * @param group Name of the group or null.
+	 * @param audience Agents allowed to see the change, null if everybody may see it.
+	 * @return The recorded change.
+	 */
+	public synchronized Change append(String type, String operation, String agentId, String group,
+			Collection<String> audience) {
+		latest++;
+		Change change = new Change(latest, type, operation, agentId, group,
+				audience == null ? null : Collections.unmodifiableSet(new HashSet<>(audience)));
+		entries[(int) ((latest - 1) % entries.length)] = change;
+		return change;
+	}
+
+	/**
+	 * Gets the changes after a version which are visible to an agent.
+	 *
+	 * @param since Version token returned by an earlier call, null or empty to get the current version.
+	 * @param agentId Id of the agent asking.
+	 * @param max Maximum number of changes returned.
+	 * @return The changes, oldest first, or a page asking for a full resync.
+	 */
+	public synchronized Page since(String since, String agentId, int max) {
+		long from = parse(since);
+		long oldest = Math.max(1, latest - entries.length + 1);
+		if (from < 0 || from > latest || from + 1 < oldest) {
+			return new Page(new ArrayList<>(), token(latest), true, false);
+		}
+		List<Change> changes = new ArrayList<>();
+		long v = from + 1;
+		for (; v <= latest && changes.size() < max; v++) {
+			Change change = entries[(int) ((v - 1) % entries.length)];
+			if (change.isVisibleTo(agentId)) {
+				changes.add(change);
+			}
+		}
+		return new Page(changes, token(v - 1), false, v <= latest);
+	}
+
+	/**
+	 * @return Token of the newest change.
+	 */
+	public synchronized String getVersion() {
+		return token(latest);
+	}
+
+	/**
+	 * @return Identifies this journal in version tokens.
+	 */
+	public String getEpoch() {
+		return epoch;
+	}
+
+	private String token(long version) {
+		return epoch + ":" + version;
+	}
+
+	/**
+	 * @return The version in the token or -1 if the token is invalid or was issued by another journal.
+	 */
+	private long parse(String token) {
+		if (token == null) {
+			return -1;
+		}
+		int sep = token.indexOf(':');
+		if (sep < 0 || !token.substring(0, sep).equals(epoch)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(token.substring(sep + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package i5.las2peer.services.contactService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compresses response bodies with gzip or deflate if the client accepts it and the body is larger than the
+ * configured threshold. Smaller bodies are sent as they are, since compressing them costs more than it saves.
+ *
+ * The body is buffered up to the threshold, so the decision can be made before the first byte is sent.
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionInterceptor implements WriterInterceptor {
+
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+
+	@Context
+	private HttpHeaders requestHeaders;
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+		ContactService service = (ContactService) i5.las2peer.api.Context.get().getService();
+		MultivaluedMap<String, Object> headers = context.getHeaders();
+		MediaType type = context.getMediaType();
+		// images are compressed already
+		if (!service.isCompressionEnabled() || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+				|| (type != null && "image".equals(type.getType()))) {
+			context.proceed();
+			return;
+		}
+		headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		String encoding = negotiate(requestHeaders == null ? null
+				: requestHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		if (encoding == null) {
+			context.proceed();
+			return;
+		}
+		ThresholdOutputStream out = new ThresholdOutputStream(context.getOutputStream(), headers, encoding,
+				service.getCompressionThresholdBytes());
+		context.setOutputStream(out);
+		context.proceed();
+		out.finish();
+		if (out.compressed != null) {
+			service.getMetrics().increment("compressed_responses", 1);
+			service.getMetrics().increment("compression_bytes_in", out.bytesIn);
+			service.getMetrics().increment("compression_bytes_out", out.compressed.count);
+		}
+	}
+
+	/**
+	 * Picks the encoding of a response from an Accept-Encoding header, gzip is preferred over deflate.
+	 *
+	 * @param acceptEncoding Value of the Accept-Encoding header, may be null.
+	 * @return "gzip", "deflate" or null if neither is accepted.
+	 */
+	static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		boolean gzip = false;
+		boolean deflate = false;
+		for (String part : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+			String[] tokens = part.split(";");
+			String coding = tokens[0].trim();
+			boolean accepted = true;
+			for (int i = 1; i < tokens.length; i++) {
+				String param = tokens[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						accepted = Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						accepted = false;
+					}
+				}
+			}
+			if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+				gzip = accepted;
+			} else if (coding.equals(DEFLATE)) {
+				deflate = accepted;
+			}
+		}
+		return gzip ? GZIP : deflate ? DEFLATE : null;
+	}
+
+	/**
+	 * Counts the bytes written to a stream.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		private long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Buffers the body until it exceeds the threshold and switches to compressing it then.
+	 */
+	private static class ThresholdOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final MultivaluedMap<String, Object> headers;
+		private final String encoding;
+		private final int threshold;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private DeflaterOutputStream compressor;
+		private CountingOutputStream compressed;
+		private long bytesIn;
+
+		ThresholdOutputStream(OutputStream out, MultivaluedMap<String, Object> headers, String encoding,
+				int threshold) {
+			this.out = out;
+			this.headers = headers;
+			this.encoding = encoding;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			bytesIn += len;
+			if (compressor != null) {
+				compressor.write(b, off, len);
+				return;
+			}
+			buffer.write(b, off, len);
+			if (buffer.size() > threshold) {
+				// headers can still be changed, nothing was sent yet
+				headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+				headers.remove(HttpHeaders.CONTENT_LENGTH);
+				compressed = new CountingOutputStream(out);
+				compressor = encoding.equals(GZIP) ? new GZIPOutputStream(compressed)
+						: new DeflaterOutputStream(compressed);
+				buffer.writeTo(compressor);
+				buffer = null;
+			}
+		}
+
+		void finish() throws IOException {
+			if (compressor != null) {
+				compressor.finish();
+			} else {
+				buffer.writeTo(out);
+			}
+			out.flush();
+		}
+	}
+}
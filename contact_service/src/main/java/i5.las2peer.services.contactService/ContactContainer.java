@@ -1,18 +1,42 @@
 package i5.las2peer.services.contactService;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * This is an example object used to persist some data (in this case a simple String) to the network storage. It can be
  * replaced with any type of Serializable or even with a plain String object.
  * 
+ * Containers larger than the compression threshold are written compressed: both fields are written as null and
+ * followed by a format byte and the deflated lists. Containers written before, without the format byte, are still
+ * read. Nodes running an older version read a compressed container as empty, so compression is off until a threshold
+ * is configured. The threshold is set per container by the service that writes it, see
+ * {@link #compressWith(int, ServiceMetrics)}.
  */
 public class ContactContainer implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final int PLAIN = 0;
+	private static final int DEFLATE = 1;
+
+	private transient int compressionThresholdBytes;
+	private transient ServiceMetrics metrics;
+	private transient long decompressNanos;
+
 	private HashSet<String> userList;
 	private HashMap<String, String> groups;
 
@@ -49,4 +73,118 @@ public class ContactContainer implements Serializable {
 		groups.remove(name);
 	}
 
+	/**
+	 * Configures the compression of this container when it is written.
+	 *
+	 * @param thresholdBytes The container is compressed if its lists are larger, 0 disables compression.
+	 * @param serviceMetrics Metrics to record the compression in, may be null.
+	 */
+	void compressWith(int thresholdBytes, ServiceMetrics serviceMetrics) {
+		compressionThresholdBytes = thresholdBytes;
+		metrics = serviceMetrics;
+	}
+
+	/**
+	 * Returns the time spent decompressing the lists when the container was read, once, so it is recorded only once.
+	 *
+	 * @return Nanoseconds, 0 if the lists were not compressed or the time was already taken.
+	 */
+	long takeDecompressNanos() {
+		long nanos = decompressNanos;
+		decompressNanos = 0;
+		return nanos;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		int threshold = compressionThresholdBytes;
+		boolean compress = threshold > 0 && estimateSize() > threshold;
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("userList", compress ? null : userList);
+		fields.put("groups", compress ? null : groups);
+		out.writeFields();
+		if (!compress) {
+			out.writeByte(PLAIN);
+			return;
+		}
+		long start = System.nanoTime();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		int plainBytes;
+		try (DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+			data.writeInt(userList.size());
+			for (String id : userList) {
+				data.writeUTF(id);
+			}
+			data.writeInt(groups.size());
+			for (Map.Entry<String, String> group : groups.entrySet()) {
+				data.writeUTF(group.getKey());
+				data.writeUTF(group.getValue());
+			}
+			data.flush();
+			plainBytes = data.size();
+		} finally {
+			deflater.end();
+		}
+		out.writeByte(DEFLATE);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		ServiceMetrics m = metrics;
+		if (m != null) {
+			m.recordOperation("compressContainer", System.nanoTime() - start);
+			m.increment("container_compressed", 1);
+			m.increment("container_bytes_plain", plainBytes);
+			m.increment("container_bytes_compressed", bytes.size());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		userList = (HashSet<String>) fields.get("userList", null);
+		groups = (HashMap<String, String>) fields.get("groups", null);
+		// containers written without the format byte read -1 here
+		int format = in.read();
+		if (format == DEFLATE) {
+			long start = System.nanoTime();
+			byte[] compressed = new byte[in.readInt()];
+			in.readFully(compressed);
+			try (DataInputStream data = new DataInputStream(
+					new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+				int users = data.readInt();
+				userList = new HashSet<>(Math.max(16, users * 4 / 3 + 1));
+				for (int i = 0; i < users; i++) {
+					userList.add(data.readUTF());
+				}
+				int groupCount = data.readInt();
+				groups = new HashMap<>(Math.max(16, groupCount * 4 / 3 + 1));
+				for (int i = 0; i < groupCount; i++) {
+					groups.put(data.readUTF(), data.readUTF());
+				}
+			}
+			decompressNanos = System.nanoTime() - start;
+		} else if (format != PLAIN && format != -1) {
+			throw new InvalidObjectException("Unknown container format " + format);
+		}
+		if (userList == null) {
+			userList = new HashSet<String>();
+		}
+		if (groups == null) {
+			groups = new HashMap<String, String>();
+		}
+	}
+
+	/**
+	 * @return Approximate size of the lists in bytes, ids are ASCII.
+	 */
+	private long estimateSize() {
+		long size = 0;
+		for (String id : userList) {
+			size += id.length() + 2;
+		}
+		for (Map.Entry<String, String> group : groups.entrySet()) {
+			size += group.getKey().length() + group.getValue().length() + 4;
+		}
+		return size;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,486 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Node-local index of the contact lists and group memberships this node has seen. Agent ids are interned to ints and
+ * every contact list is kept as a sorted int array, so questions across users like mutual contacts are answered by
+ * merging two arrays instead of loading envelopes. The groups of an agent are kept the same way.
+ *
+ * The index only knows the contact lists and memberships which were read or changed on this node. A list is either
+ * completely known or unknown, incremental updates to unknown lists are ignored.
+ *
+ * Interned ids are reference counted: an id is referenced by every list it appears in and by its own known lists. An
+ * id no list refers to any more is released and its int is reused, so removed contacts and members do not stay in
+ * the index.
+ */
+public class ContactGraph {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private String[] agents = new String[256];
+	// number of lists referring to each interned id
+	private int[] refs = new int[256];
+	private final ArrayDeque<Integer> free = new ArrayDeque<>();
+	private int size;
+	// sorted contact ids per interned agent, null if the agent's list is unknown
+	private int[][] contacts = new int[256][];
+	// sorted ids of the groups per interned agent, null if the agent's groups are unknown
+	private int[][] groups = new int[256][];
+	private long edges;
+
+	/**
+	 * Replaces the contact list of an agent.
+	 *
+	 * @param owner Id of the agent.
+	 * @param contactIds Ids of all contacts of the agent.
+	 */
+	public void setContacts(String owner, Collection<String> contactIds) {
+		lock.writeLock().lock();
+		try {
+			int o = intern(owner);
+			int[] list = new int[contactIds.size()];
+			int n = 0;
+			for (String id : contactIds) {
+				list[n++] = intern(id);
+			}
+			Arrays.sort(list, 0, n);
+			n = dedupe(list, n);
+			int[] old = contacts[o];
+			edges += n - (old == null ? 0 : old.length);
+			contacts[o] = n == list.length ? list : Arrays.copyOf(list, n);
+			replaced(o, old, contacts[o]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a contact to a known contact list.
+	 *
+	 * @param owner Id of the agent.
+	 * @param contact Id of the new contact.
+	 * @return False if the contact list of the agent is unknown and nothing was changed.
+	 */
+	public boolean addContact(String owner, String contact) {
+		lock.writeLock().lock();
+		try {
+			Integer o = ids.get(owner);
+			if (o == null || contacts[o] == null) {
+				return false;
+			}
+			int c = intern(contact);
+			int[] updated = insert(contacts[o], c);
+			if (updated != contacts[o]) {
+				contacts[o] = updated;
+				refs[c]++;
+				edges++;
+			} else {
+				releaseIfUnused(c);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a contact from a known contact list.
+	 *
+	 * @param owner Id of the agent.
+	 * @param contact Id of the removed contact.
+	 * @return False if the contact list of the agent is unknown and nothing was changed.
+	 */
+	public boolean removeContact(String owner, String contact) {
+		lock.writeLock().lock();
+		try {
+			Integer o = ids.get(owner);
+			if (o == null || contacts[o] == null) {
+				return false;
+			}
+			Integer c = ids.get(contact);
+			int[] updated = c == null ? contacts[o] : delete(contacts[o], c);
+			if (updated != contacts[o]) {
+				contacts[o] = updated;
+				edges--;
+				release(c);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the groups an agent is a member of.
+	 *
+	 * @param member Id of the agent.
+	 * @param groupIds Ids of all group agents the agent is a member of.
+	 */
+	public void setGroups(String member, Collection<String> groupIds) {
+		lock.writeLock().lock();
+		try {
+			int m = intern(member);
+			int[] list = new int[groupIds.size()];
+			int n = 0;
+			for (String id : groupIds) {
+				list[n++] = intern(id);
+			}
+			Arrays.sort(list, 0, n);
+			n = dedupe(list, n);
+			int[] old = groups[m];
+			groups[m] = n == list.length ? list : Arrays.copyOf(list, n);
+			replaced(m, old, groups[m]);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a group to the known groups of an agent.
+	 *
+	 * @param member Id of the agent.
+	 * @param groupId Id of the group agent the agent joined.
+	 * @return False if the groups of the agent are unknown and nothing was changed.
+	 */
+	public boolean addGroup(String member, String groupId) {
+		lock.writeLock().lock();
+		try {
+			Integer m = ids.get(member);
+			if (m == null || groups[m] == null) {
+				return false;
+			}
+			int g = intern(groupId);
+			int[] updated = insert(groups[m], g);
+			if (updated != groups[m]) {
+				groups[m] = updated;
+				refs[g]++;
+			} else {
+				releaseIfUnused(g);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a group from the known groups of an agent.
+	 *
+	 * @param member Id of the agent.
+	 * @param groupId Id of the group agent the agent left.
+	 * @return False if the groups of the agent are unknown and nothing was changed.
+	 */
+	public boolean removeGroup(String member, String groupId) {
+		lock.writeLock().lock();
+		try {
+			Integer m = ids.get(member);
+			if (m == null || groups[m] == null) {
+				return false;
+			}
+			Integer g = ids.get(groupId);
+			int[] updated = g == null ? groups[m] : delete(groups[m], g);
+			if (updated != groups[m]) {
+				groups[m] = updated;
+				release(g);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param member Id of the agent.
+	 * @return Ids of the group agents the agent is a member of or null if its groups are unknown.
+	 */
+	public List<String> getGroups(String member) {
+		lock.readLock().lock();
+		try {
+			Integer m = ids.get(member);
+			if (m == null || groups[m] == null) {
+				return null;
+			}
+			return names(groups[m], groups[m].length);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param owner Id of the agent.
+	 * @return True if the contact list of the agent is known.
+	 */
+	public boolean isKnown(String owner) {
+		return list(owner) != null;
+	}
+
+	/**
+	 * @param owner Id of the agent.
+	 * @return The contacts of the agent or null if its contact list is unknown.
+	 */
+	public List<String> getContacts(String owner) {
+		lock.readLock().lock();
+		try {
+			Integer o = ids.get(owner);
+			if (o == null || contacts[o] == null) {
+				return null;
+			}
+			return names(contacts[o], contacts[o].length);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the agents which are contacts of both given agents.
+	 *
+	 * @param a Id of the first agent.
+	 * @param b Id of the second agent.
+	 * @return The ids of the mutual contacts, empty if one of the contact lists is unknown.
+	 */
+	public List<String> getMutualContacts(String a, String b) {
+		lock.readLock().lock();
+		try {
+			int[] first = listLocked(a);
+			int[] second = listLocked(b);
+			if (first == null || second == null) {
+				return new ArrayList<>();
+			}
+			int[] common = new int[Math.min(first.length, second.length)];
+			int n = intersect(first, second, common);
+			return names(common, n);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param a Id of the first agent.
+	 * @param b Id of the second agent.
+	 * @return The number of mutual contacts, 0 if one of the contact lists is unknown.
+	 */
+	public int countMutualContacts(String a, String b) {
+		lock.readLock().lock();
+		try {
+			int[] first = listLocked(a);
+			int[] second = listLocked(b);
+			if (first == null || second == null) {
+				return 0;
+			}
+			return intersect(first, second, null);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts how often agents appear in the contact lists of an agent's contacts. The agent itself and its direct
+	 * contacts are left out. The work is bounded: only the first maxContacts contacts and the first maxPerContact
+	 * entries of each of their lists are looked at.
+	 *
+	 * @param owner Id of the agent.
+	 * @param maxContacts Maximum number of contacts whose lists are read.
+	 * @param maxPerContact Maximum number of entries read per contact list.
+	 * @return Number of mutual contacts per contact of a contact, empty if the agent's list is unknown.
+	 */
+	public Map<String, Integer> countContactsOfContacts(String owner, int maxContacts, int maxPerContact) {
+		lock.readLock().lock();
+		try {
+			Map<String, Integer> result = new HashMap<>();
+			Integer o = ids.get(owner);
+			int[] direct = o == null ? null : contacts[o];
+			if (direct == null) {
+				return result;
+			}
+			HashMap<Integer, Integer> counts = new HashMap<>();
+			for (int i = 0; i < direct.length && i < maxContacts; i++) {
+				int[] second = contacts[direct[i]];
+				if (second == null) {
+					continue;
+				}
+				for (int j = 0; j < second.length && j < maxPerContact; j++) {
+					int candidate = second[j];
+					if (candidate != o && Arrays.binarySearch(direct, candidate) < 0) {
+						counts.merge(candidate, 1, Integer::sum);
+					}
+				}
+			}
+			for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+				result.put(agents[e.getKey()], e.getValue());
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number of interned agent ids, released ids are not counted.
+	 */
+	public int getAgentCount() {
+		lock.readLock().lock();
+		try {
+			return ids.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number of contact relations in all known contact lists.
+	 */
+	public long getEdgeCount() {
+		lock.readLock().lock();
+		try {
+			return edges;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int[] list(String owner) {
+		lock.readLock().lock();
+		try {
+			return listLocked(owner);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int[] listLocked(String owner) {
+		Integer o = ids.get(owner);
+		return o == null ? null : contacts[o];
+	}
+
+	/**
+	 * Interns an id. A new id has no references, the caller must add one or call {@link #releaseIfUnused(int)}.
+	 */
+	private int intern(String id) {
+		Integer existing = ids.get(id);
+		if (existing != null) {
+			return existing;
+		}
+		Integer reused = free.poll();
+		int next = reused != null ? reused : size++;
+		if (next == agents.length) {
+			agents = Arrays.copyOf(agents, next * 2);
+			refs = Arrays.copyOf(refs, next * 2);
+			contacts = Arrays.copyOf(contacts, next * 2);
+			groups = Arrays.copyOf(groups, next * 2);
+		}
+		agents[next] = id;
+		ids.put(id, next);
+		return next;
+	}
+
+	/**
+	 * Moves the references of an agent's list from its old to its new entries. The agent itself is referenced as long
+	 * as one of its lists is known. The new entries are referenced first, so entries in both lists are kept.
+	 */
+	private void replaced(int owner, int[] old, int[] updated) {
+		for (int id : updated) {
+			refs[id]++;
+		}
+		if (old == null) {
+			refs[owner]++;
+			return;
+		}
+		for (int id : old) {
+			release(id);
+		}
+	}
+
+	private void release(int id) {
+		refs[id]--;
+		releaseIfUnused(id);
+	}
+
+	private void releaseIfUnused(int id) {
+		if (refs[id] == 0) {
+			ids.remove(agents[id]);
+			agents[id] = null;
+			free.push(id);
+		}
+	}
+
+	private List<String> names(int[] list, int n) {
+		List<String> result = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(agents[list[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The sorted array with the value added, the given array if it already holds the value.
+	 */
+	private static int[] insert(int[] sorted, int value) {
+		int pos = Arrays.binarySearch(sorted, value);
+		if (pos >= 0) {
+			return sorted;
+		}
+		pos = -pos - 1;
+		int[] updated = new int[sorted.length + 1];
+		System.arraycopy(sorted, 0, updated, 0, pos);
+		updated[pos] = value;
+		System.arraycopy(sorted, pos, updated, pos + 1, sorted.length - pos);
+		return updated;
+	}
+
+	/**
+	 * @return The sorted array without the value, the given array if it does not hold the value.
+	 */
+	private static int[] delete(int[] sorted, int value) {
+		int pos = Arrays.binarySearch(sorted, value);
+		if (pos < 0) {
+			return sorted;
+		}
+		int[] updated = new int[sorted.length - 1];
+		System.arraycopy(sorted, 0, updated, 0, pos);
+		System.arraycopy(sorted, pos + 1, updated, pos, sorted.length - pos - 1);
+		return updated;
+	}
+
+	private static int dedupe(int[] sorted, int n) {
+		if (n == 0) {
+			return 0;
+		}
+		int w = 1;
+		for (int r = 1; r < n; r++) {
+			if (sorted[r] != sorted[w - 1]) {
+				sorted[w++] = sorted[r];
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Merges two sorted arrays. Writes the common values to out if it is not null.
+	 */
+	private static int intersect(int[] a, int[] b, int[] out) {
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				if (out != null) {
+					out[n] = a[i];
+				}
+				n++;
+				i++;
+				j++;
+			}
+		}
+		return n;
+	}
+}
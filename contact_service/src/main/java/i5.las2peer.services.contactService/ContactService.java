@@ -1,30 +1,58 @@
 package i5.las2peer.services.contactService;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import i5.las2peer.api.Context;
 import i5.las2peer.api.ManualDeployment;
+import i5.las2peer.api.execution.ServiceInvocationException;
 import i5.las2peer.api.persistency.Envelope;
 import i5.las2peer.api.persistency.EnvelopeException;
 import i5.las2peer.api.persistency.EnvelopeNotFoundException;
+import i5.las2peer.api.persistency.EnvelopeOperationFailedException;
 import i5.las2peer.api.security.Agent;
+import i5.las2peer.api.security.AgentAccessDeniedException;
 import i5.las2peer.api.security.AgentException;
 import i5.las2peer.api.security.AgentNotFoundException;
+import i5.las2peer.api.security.AgentOperationFailedException;
 import i5.las2peer.api.security.GroupAgent;
 import i5.las2peer.api.security.UserAgent;
 import i5.las2peer.logging.L2pLogger;
@@ -39,8 +67,10 @@ import io.swagger.annotations.Contact;
 import io.swagger.annotations.Info;
 import io.swagger.annotations.License;
 import io.swagger.annotations.SwaggerDefinition;
+import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
 
 /**
  * las2peer Contact Service
@@ -81,6 +111,14 @@ import net.minidev.json.parser.JSONParser;
  * <li>Gets a user's permission settings
  * <li>Sets your permission settings
  * </ul>
+ * MetricsResource:
+ * <ul>
+ * <li>Gets latency and storage operation metrics of this node
+ * </ul>
+ * AdminResource:
+ * <ul>
+ * <li>Gets and changes the runtime settings of this node
+ * </ul>
  * 
  * 
  * @author Alexander Neumann
@@ -97,10 +135,124 @@ public class ContactService extends RESTService {
 	private final static String contact_prefix = "contacts";
 	private final static String group_prefix = "groups";
 	private final static String address_prefix = "addressbook";
+	private final static String avatar_prefix = "avatar";
+	private final static int MAX_SUGGESTIONS = 50;
+	private final static int MAX_CHANGES = 1000;
+	private final static int HEDGE_MIN_SAMPLES = 100;
+	private final static int MAX_RATE_COST = maxRateCost();
+	private final static String[] PROFILE_FIELDS = { "firstName", "lastName", "userImage" };
 	private String contactStorerAgentName;
 	private String contactStorerAgentPW;
 	private static String contactStorerAgentNameStatic;
 	private static String contactStorerAgentPWStatic;
+	private volatile boolean serverTimingEnabled;
+	private volatile long slowRequestThresholdMs;
+	private volatile long singleFlightTimeoutMs;
+	private volatile long negativeCacheTtlMs;
+	private volatile long pruneIntervalMs;
+	private volatile int pruneBatchSize;
+	private volatile long suggestionCacheTtlMs;
+	private volatile int suggestionFanOut;
+	private int changeJournalSize;
+	private final ChangeJournal changes;
+	private int eventBufferSize;
+	private long eventIdleTimeoutMs;
+	private volatile long eventMaxWaitMs;
+	private int eventMaxWaiters;
+	private int eventMaxSubscriptionsPerAgent;
+	private long eventRetryMs;
+	private final EventHub events;
+	private volatile boolean rateLimitEnabled;
+	private volatile int agentTokensPerSecond;
+	private volatile int agentTokenBurst;
+	private volatile int globalTokensPerSecond;
+	private volatile int globalTokenBurst;
+	private volatile boolean hedgingEnabled;
+	private volatile int hedgeBudgetPercent;
+	private volatile long hedgeMinDelayMs;
+	private volatile long envelopeReadTimeoutMs;
+	private volatile long agentReadTimeoutMs;
+	private String identityCacheFile;
+	private volatile int identityCacheSize;
+	private volatile long identityCacheTtlMs;
+	private long identityCacheWriteIntervalMs;
+	private long groupListRetryMs;
+	private long groupListMaxRetryMs;
+	private String groupListPendingFile;
+	private final GroupListUpdater groupList;
+	private int groupListShards;
+	private final AtomicBoolean groupListMigration = new AtomicBoolean();
+	private volatile boolean groupListMigrated;
+	private volatile int groupListShardCount;
+	private volatile boolean compressionEnabled;
+	private volatile int compressionThresholdBytes;
+	private volatile int profileConcurrency;
+	private volatile long profileTimeoutMs;
+	private volatile long profileCacheTtlMs;
+	private volatile long permissionCacheTtlMs;
+	private volatile int avatarMaxBytes;
+	private volatile long avatarCacheBytes;
+	private volatile int avatarThumbnailSize;
+	private volatile int avatarMaxAgeSeconds;
+	private final AvatarCache avatarCache;
+	private String writeBehindLogFile;
+	private long writeBehindDelayMs;
+	private long writeBehindRetryMs;
+	private long writeBehindMaxRetryMs;
+	private volatile int containerCompressionThresholdBytes;
+	private int envelopeLockStripes;
+	private volatile int profileCacheSize;
+	private volatile int permissionCacheSize;
+	private volatile int negativeCacheSize;
+	private volatile int suggestionCacheSize;
+	private String adminAgents;
+	private final RuntimeSettings settings = new RuntimeSettings();
+	private final EnvelopeLocks envelopeLocks;
+	private WriteBehindLog writeBehind;
+	private final IdentityCache identities;
+	private ScheduledExecutorService identityCacheWriter;
+	private final ServiceMetrics metrics = new ServiceMetrics();
+	private final SlowRequestLog slowRequests = new SlowRequestLog(100);
+	private final SingleFlight<String, ContactContainer> containerFetches = new SingleFlight<>(metrics,
+			"envelope_fetch", EnvelopeNotFoundException.class);
+	private final NegativeCache unknownAgents = new NegativeCache(10000);
+	private final DeadAgentPruner pruner = new DeadAgentPruner(metrics);
+	private final ContactGraph contactGraph = new ContactGraph();
+	private final ContactSuggestions suggestions = new ContactSuggestions(10000);
+	private final RateLimiter rateLimiter = new RateLimiter(100000);
+	private final HedgedReads hedgedReads = new HedgedReads(metrics);
+	private final ExpiringCache<String, Map<?, ?>> profileCache = new ExpiringCache<>(10000);
+	private final ExpiringCache<String, HashMap<String, Boolean>> permissionCache = new ExpiringCache<>(10000);
+
+	public ContactService() {
+		// initResources() runs in the super constructor, before the field initializers, so the settings are read
+		// and everything depending on them or on the metrics is created here
+		super();
+		loadSettings();
+		envelopeLocks = new EnvelopeLocks(envelopeLockStripes, metrics);
+		changes = new ChangeJournal(changeJournalSize);
+		events = new EventHub(metrics, eventBufferSize, eventIdleTimeoutMs, eventMaxWaiters,
+				eventMaxSubscriptionsPerAgent, eventRetryMs);
+		identities = new IdentityCache(identityCacheSize);
+		loadIdentityCache();
+		avatarCache = new AvatarCache(avatarCacheBytes);
+		groupList = openGroupListUpdater();
+		openWriteBehindLog();
+		profileCache.setMaxSize(profileCacheSize);
+		permissionCache.setMaxSize(permissionCacheSize);
+		unknownAgents.setMaxSize(negativeCacheSize);
+		suggestions.setMaxEntries(suggestionCacheSize);
+		metrics.gauge("event_subscriptions", events::size);
+		metrics.gauge("rate_limit_buckets", rateLimiter::size);
+		metrics.gauge("identity_cache_entries", identities::size);
+		metrics.gauge("group_list_pending", groupList::size);
+		metrics.gauge("profile_cache_entries", profileCache::size);
+		metrics.gauge("permission_cache_entries", permissionCache::size);
+		metrics.gauge("avatar_cache_bytes", avatarCache::getBytes);
+		metrics.gauge("write_behind_pending", () -> writeBehind == null ? 0 : writeBehind.size());
+		metrics.gauge("prune_suspects", pruner::getSuspects);
+		registerSettings();
+	}
 
 	@Override
 	protected void initResources() {
@@ -110,10 +262,94 @@ public class ContactService extends RESTService {
 		getResourceConfig().register(UserResource.class);
 		getResourceConfig().register(PermissionResource.class);
 		getResourceConfig().register(NameResource.class);
+		getResourceConfig().register(MetricsResource.class);
+		getResourceConfig().register(AdminResource.class);
+		getResourceConfig().register(RequestMetricsFilter.class);
+		getResourceConfig().register(RateLimitFilter.class);
+		getResourceConfig().register(BackgroundWorkFilter.class);
+		getResourceConfig().register(CompressionInterceptor.class);
+		getResourceConfig().register(CborBodyWriter.class);
+	}
+
+	/**
+	 * Reads the settings from the properties file. Settings missing there keep
+	 * the defaults set here.
+	 *
+	 * @since 1.1.2
+	 */
+	private void loadSettings() {
+		serverTimingEnabled = false;
+		slowRequestThresholdMs = 1000;
+		singleFlightTimeoutMs = 5000;
+		negativeCacheTtlMs = 60000;
+		pruneIntervalMs = 600000;
+		pruneBatchSize = 50;
+		suggestionCacheTtlMs = 300000;
+		suggestionFanOut = 50;
+		changeJournalSize = 10000;
+		eventBufferSize = 100;
+		eventIdleTimeoutMs = 120000;
+		eventMaxWaitMs = 20000;
+		eventMaxWaiters = 64;
+		eventMaxSubscriptionsPerAgent = 8;
+		eventRetryMs = 1000;
+		rateLimitEnabled = true;
+		agentTokensPerSecond = 20;
+		agentTokenBurst = 100;
+		globalTokensPerSecond = 1000;
+		globalTokenBurst = 5000;
+		hedgingEnabled = false;
+		hedgeBudgetPercent = 5;
+		hedgeMinDelayMs = 10;
+		envelopeReadTimeoutMs = 10000;
+		agentReadTimeoutMs = 10000;
+		identityCacheFile = "";
+		identityCacheSize = 100000;
+		identityCacheTtlMs = 86400000;
+		identityCacheWriteIntervalMs = 300000;
+		groupListRetryMs = 1000;
+		groupListMaxRetryMs = 60000;
+		groupListPendingFile = "";
+		groupListShards = 16;
+		compressionEnabled = true;
+		compressionThresholdBytes = 1024;
+		profileConcurrency = 16;
+		profileTimeoutMs = 3000;
+		profileCacheTtlMs = 60000;
+		permissionCacheTtlMs = 30000;
+		avatarMaxBytes = 1048576;
+		avatarCacheBytes = 16777216;
+		avatarThumbnailSize = 0;
+		avatarMaxAgeSeconds = 300;
+		writeBehindLogFile = "";
+		writeBehindDelayMs = 50;
+		writeBehindRetryMs = 1000;
+		writeBehindMaxRetryMs = 60000;
+		containerCompressionThresholdBytes = 0;
+		envelopeLockStripes = 1024;
+		profileCacheSize = 10000;
+		permissionCacheSize = 10000;
+		negativeCacheSize = 10000;
+		suggestionCacheSize = 10000;
+		adminAgents = "";
 		setFieldValues();
+		groupListShards = Math.max(1, groupListShards);
+		agentTokenBurst = Math.max(MAX_RATE_COST, agentTokenBurst);
+		globalTokenBurst = Math.max(MAX_RATE_COST, globalTokenBurst);
 		contactStorerAgentNameStatic = contactStorerAgentName;
 		contactStorerAgentPWStatic = contactStorerAgentPW;
+	}
 
+	@Override
+	public void onStop() {
+		if (identityCacheWriter != null) {
+			identityCacheWriter.shutdownNow();
+		}
+		saveIdentityCache();
+		groupList.shutdown();
+		if (writeBehind != null) {
+			writeBehind.close();
+		}
 	}
 
 	// //////////////////////////////////////////////////////////////////////////////////////
@@ -126,40 +362,50 @@ public class ContactService extends RESTService {
 		ContactService service = (ContactService) Context.get().getService();
 
 		/**
-		 * Get all your contacts from the storage.
+		 * Get all your contacts from the storage. With <code>expand=profile</code>
+		 * the contacts are joined with the fields of their user information they
+		 * made visible.
 		 * 
+		 * @param fields Fields of the contacts to return, see {@link FieldSelection}.
+		 * @param expand <code>profile</code> to add the user information.
 		 * @return Returns a JSON string with a list of your contacts { id:name }.
 		 * @since 0.1
 		 */
 		@GET
-		@Produces(MediaType.APPLICATION_JSON)
+		@Produces({ MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE })
 		@ApiOperation(value = "Get Contacts", notes = "Get all your contacts.")
 		@ApiResponses(value = {
 				@ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got a list of your contacts."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
-		public Response getContacts() {
+		@RateCost(5)
+		public Response getContacts(@QueryParam(FieldSelection.PARAMETER) String fields,
+				@QueryParam(FieldSelection.EXPAND_PARAMETER) String expand) {
 			Agent owner = Context.get().getMainAgent();
 			String identifier = contact_prefix + "_" + owner.getIdentifier();
-			JSONObject result = new JSONObject();
+			FieldSelection selection;
+			try {
+				selection = FieldSelection.parse(fields, expand);
+			} catch (IllegalArgumentException e) {
+				return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+			}
+			Object result;
 			try {
 				try {
-					Envelope stored = Context.get().requestEnvelope(identifier, owner);
-					ContactContainer cc = (ContactContainer) stored.getContent();
+					Envelope stored = service.requestEnvelope(identifier, owner);
+					ContactContainer cc = service.readContainer(stored);
 					HashSet<String> userList = cc.getUserList();
-					UserAgent user;
-					for (String l : userList) {
-						try {
-							user = (UserAgent) Context.get().fetchAgent(l);
-							result.put(user.getIdentifier(), user.getLoginName());
-						} catch (AgentNotFoundException e1) {
-							// Skip unknown agents.
-						}
-					}
+					service.contactGraph.setContacts(owner.getIdentifier(), userList);
+					Set<String> unknown = new HashSet<>();
+					// Unknown agents are skipped, they are removed in the background.
+					result = service.projectAgents(userList, selection, unknown, false);
+					service.pruneLater(identifier, unknown, owner);
 				} catch (EnvelopeNotFoundException e) {
 					ContactContainer cc = new ContactContainer();
 					Envelope env = Context.get().createEnvelope(identifier, owner);
 					env.setContent(cc);
-					Context.get().storeEnvelope(env, owner);
+					service.writeEnvelope(env, owner);
+					service.contactGraph.setContacts(owner.getIdentifier(), cc.getUserList());
+					result = service.projectAgents(cc.getUserList(), selection, null, false);
 				}
 			} catch (Exception e) {
 				// write error to logfile and console
@@ -185,6 +431,7 @@ public class ContactService extends RESTService {
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Contact added."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Contact already in list or storage problems."),
 				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Agent does not exist.") })
+		@RateCost(3)
 		public Response addContact(@PathParam("name") String name) {
 			// Setting owner and identifier for envelope
 			Agent owner = Context.get().getMainAgent();
@@ -195,32 +442,47 @@ public class ContactService extends RESTService {
 
 			// try to fetch user you want to add
 			try {
-				userID = Context.get().getUserAgentIdentifierByLoginName(name);
+				userID = service.resolveLoginName(name);
 			} catch (AgentException ex) {
 				return Response.status(Status.NOT_FOUND).entity("Agent does not exist.").build();
 			}
 
 			// try to get envelope
 			ContactContainer cc = null;
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
 				try {
-					env = Context.get().requestEnvelope(identifier);
-					cc = (ContactContainer) env.getContent();
-				} catch (EnvelopeNotFoundException e) {
-					cc = new ContactContainer();
-					env = Context.get().createEnvelope(identifier);
+					try {
+						env = service.requestEnvelope(identifier);
+						cc = service.readContainer(env);
+					} catch (EnvelopeNotFoundException e) {
+						cc = new ContactContainer();
+						env = Context.get().createEnvelope(identifier);
+					}
+				} catch (Exception e) {
+					// write error to logfile and console
+					logger.log(Level.SEVERE, "Unknown error occured!", e);
+					return Response.status(Status.BAD_REQUEST).build();
 				}
-			} catch (Exception e) {
-				// write error to logfile and console
-				logger.log(Level.SEVERE, "Unknown error occured!", e);
-				return Response.status(Status.BAD_REQUEST).build();
+				added = cc.addContact(userID);
+				env.setContent(cc);
+				// try to store envelope
+				try {
+					service.writeEnvelope(env, owner);
+				} catch (EnvelopeException e) {
+					return service.storeFailed(env, e);
+				}
+			} finally {
+				lock.unlock();
 			}
-			added = cc.addContact(userID);
-			env.setContent(cc);
-			// try to store envelope
-			service.storeEnvelope(env, owner);
+			if (!service.contactGraph.addContact(owner.getIdentifier(), userID)) {
+				service.contactGraph.setContacts(owner.getIdentifier(), cc.getUserList());
+			}
+			service.suggestions.invalidate(owner.getIdentifier());
 
 			if (added) {
+				service.recordChange(ChangeJournal.CONTACT, ChangeJournal.ADD, userID, null,
+						Collections.singleton(owner.getIdentifier()));
 				return Response.status(Status.OK).entity("Contact added.").build();
 			} else {
 				return Response.status(Status.BAD_REQUEST).entity("Contact already in list.").build();
@@ -241,38 +503,177 @@ public class ContactService extends RESTService {
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Contact not in list or storage problems."),
 				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Agent does not exist.") })
 		@ApiOperation(value = "Remove Contact", notes = "Removes a contact from your contact list.")
+		@RateCost(3)
 		public Response removeContact(@PathParam("name") String name) {
 			Agent owner = Context.get().getMainAgent();
 			String identifier = contact_prefix + "_" + owner.getIdentifier();
 			Envelope env = null;
 			boolean deleted = false;
 			ContactContainer cc = null;
+			String userID = null;
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
 				try {
-					env = Context.get().requestEnvelope(identifier, owner);
-					cc = (ContactContainer) env.getContent();
-					String userID = Context.get().getUserAgentIdentifierByLoginName(name);
-					deleted = cc.removeContact(userID);
-				} catch (EnvelopeNotFoundException e) {
-					cc = new ContactContainer();
-					env = Context.get().createEnvelope(identifier, owner);
-				} catch (AgentException ex) {
-					return Response.status(Status.NOT_FOUND).entity("Agent does not exist").build();
+					try {
+						env = service.requestEnvelope(identifier, owner);
+						cc = service.readContainer(env);
+						userID = service.resolveLoginName(name);
+						deleted = cc.removeContact(userID);
+					} catch (EnvelopeNotFoundException e) {
+						cc = new ContactContainer();
+						env = Context.get().createEnvelope(identifier, owner);
+					} catch (AgentException ex) {
+						return Response.status(Status.NOT_FOUND).entity("Agent does not exist").build();
+					}
+				} catch (Exception e) {
+					// write error to logfile and console
+					logger.log(Level.SEVERE, "Can't persist to network storage!", e);
+					// create and publish a monitoring message
+					return Response.status(Status.BAD_REQUEST).entity("Could not delete Contact").build();
 				}
-			} catch (Exception e) {
-				// write error to logfile and console
-				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
-				// create and publish a monitoring message
-				return Response.status(Status.BAD_REQUEST).entity("Could not delete Contact").build();
+				env.setContent(cc);
+				try {
+					service.writeEnvelope(env, owner);
+				} catch (EnvelopeException e) {
+					return service.storeFailed(env, e);
+				}
+			} finally {
+				lock.unlock();
 			}
-			env.setContent(cc);
-			service.storeEnvelope(env, owner);
+			if (userID == null || !service.contactGraph.removeContact(owner.getIdentifier(), userID)) {
+				service.contactGraph.setContacts(owner.getIdentifier(), cc.getUserList());
+			}
+			service.suggestions.invalidate(owner.getIdentifier());
 			if (deleted) {
+				service.recordChange(ChangeJournal.CONTACT, ChangeJournal.REMOVE, userID, null,
+						Collections.singleton(owner.getIdentifier()));
 				return Response.status(Status.OK).entity("Contact removed.").build();
 			} else {
 				return Response.status(Status.NOT_FOUND).entity("User is not one of your contacts.").build();
 			}
 		}
+
+		/**
+		 * Get users you might know. Users who are not yet your contacts are ranked by
+		 * the number of contacts you have in common and the number of groups you share.
+		 * 
+		 * @param limit Maximum number of suggestions, at most 50.
+		 * @return Returns a JSON array of suggestions, best first, each with id, name,
+		 *         mutualContacts and sharedGroups.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("suggestions")
+		@Produces(MediaType.APPLICATION_JSON)
+		@ApiOperation(value = "Get Contact Suggestions", notes = "Get users you might know.")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got a list of suggestions."),
+				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
+		@RateCost(10)
+		public Response getSuggestions(@QueryParam("limit") @DefaultValue("10") int limit) {
+			Agent owner = Context.get().getMainAgent();
+			JSONArray result = new JSONArray();
+			try {
+				List<ContactSuggestions.Suggestion> ranked = service.getSuggestions(owner);
+				for (ContactSuggestions.Suggestion suggestion : ranked) {
+					if (result.size() >= Math.min(limit, MAX_SUGGESTIONS)) {
+						break;
+					}
+					try {
+						String name = service.getLoginName(suggestion.getAgentId());
+						JSONObject entry = new JSONObject();
+						entry.put("id", suggestion.getAgentId());
+						entry.put("name", name);
+						entry.put("mutualContacts", suggestion.getMutualContacts());
+						entry.put("sharedGroups", suggestion.getSharedGroups());
+						result.add(entry);
+					} catch (AgentException | ClassCastException e1) {
+						// Skip unknown agents.
+					}
+				}
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Can't get suggestions!", e);
+				return Response.status(Status.BAD_REQUEST).entity(e.toString()).build();
+			}
+			return Response.status(Status.OK).entity(result).build();
+		}
+
+		/**
+		 * Get the changes to your contacts, your groups and the address book since a
+		 * version you received earlier. The changes are kept per node and only for a
+		 * limited time; if they are no longer available, resync is true and you have
+		 * to get your lists again.
+		 * 
+		 * @param since Version returned by the last call, empty to get the current
+		 *              version.
+		 * @return Returns a JSON object with the current version, the resync flag, a
+		 *         more flag if not all changes fit into the response, and the list
+		 *         of changes (type, op, id, group).
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("changes")
+		@Produces(MediaType.APPLICATION_JSON)
+		@ApiOperation(value = "Get Changes", notes = "Get the changes since the given version.")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got the changes.") })
+		@RateCost(1)
+		public Response getChanges(@QueryParam("since") String since) {
+			String agentId = Context.get().getMainAgent().getIdentifier();
+			ChangeJournal.Page page = service.changes.since(since, agentId, MAX_CHANGES);
+			JSONArray list = new JSONArray();
+			for (ChangeJournal.Change change : page.getChanges()) {
+				list.add(change.toJSON(service.changes.getEpoch()));
+			}
+			JSONObject result = new JSONObject();
+			result.put("version", page.getVersion());
+			result.put("resync", page.isResync());
+			result.put("more", page.hasMore());
+			result.put("changes", list);
+			return Response.status(Status.OK).entity(result).build();
+		}
+
+		/**
+		 * Get notified about changes to your contacts, your groups and the address
+		 * book as Server-Sent Events. The response contains the events buffered for
+		 * you and ends; EventSource clients reconnect by themselves and pass the id of
+		 * the last received event, which acknowledges the events up to it. If no
+		 * events are buffered, the request waits for some time before answering with
+		 * a heartbeat. A resync event means that events were lost and the lists have
+		 * to be fetched again.
+		 * 
+		 * @param lastEventId      Id of the last received event, sent by
+		 *                         EventSource on reconnect.
+		 * @param lastEventIdParam The same as query parameter, for clients which
+		 *                         cannot set headers.
+		 * @return Returns the events in the text/event-stream format.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("events")
+		@Produces("text/event-stream")
+		@ApiOperation(value = "Get Events", notes = "Get change notifications as Server-Sent Events.")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got the events.") })
+		// a poll holds a waiter slot and a request thread for up to eventMaxWaitMs
+		@RateCost(5)
+		public Response getEvents(@HeaderParam("Last-Event-ID") String lastEventId,
+				@QueryParam("lastEventId") String lastEventIdParam) {
+			String last = lastEventId != null ? lastEventId : lastEventIdParam;
+			EventHub.Subscription subscription = service.events
+					.subscribe(Context.get().getMainAgent().getIdentifier(), last);
+			// a new client gets its subscription id right away
+			long waitMs = last == null ? 0 : service.eventMaxWaitMs;
+			String body;
+			long start = System.nanoTime();
+			try {
+				body = service.events.poll(subscription, waitMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Response.status(Status.SERVICE_UNAVAILABLE).build();
+			} finally {
+				RequestTrace.record(RequestTrace.IDLE, System.nanoTime() - start);
+			}
+			return Response.status(Status.OK).type("text/event-stream").header("Cache-Control", "no-cache")
+					.entity(body).build();
+		}
 	}
 
 	@Path("/groups") // this is the root resource
@@ -288,47 +689,32 @@ public class ContactService extends RESTService {
 		 * @since 0.1
 		 */
 		@GET
-		@Produces(MediaType.APPLICATION_JSON)
+		@Produces({ MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE })
 		@ApiOperation(value = "Get Groups", notes = "Get all your Groups.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got a list of your groups."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
+		@RateCost(5)
 		public Response getGroups() {
-			String identifier = contactStorerAgentPWStatic;
 			JSONObject result = new JSONObject();
-			UserAgent contactStorer = null;
 			try {
-				try {
-					contactStorer = (UserAgent) Context.getCurrent().fetchAgent(
-							Context.getCurrent().getUserAgentIdentifierByLoginName(contactStorerAgentNameStatic));
-					contactStorer.unlock(contactStorerAgentPWStatic);
-				} catch (Exception e) {
-					System.out.println("apparently no contact storer there or not unlockable");
-				}
-				try {
-					Envelope stored = Context.get().requestEnvelope(identifier, contactStorer);
-					ContactContainer cc = (ContactContainer) stored.getContent();
-					Set<String> groupNames = cc.getGroups().keySet();
-					String groupId = "";
-					for (String s : groupNames) {
-						try {
-							System.out.println(s);
-							groupId = cc.getGroupId(s);
-							Context.get().requestAgent(groupId);
-							result.put(groupId, s);
-						} catch (Exception e) {
-							// Skip agents who are not known or groups wihtout access.
-						}
+				Map<String, String> groups = service.readGroupList();
+				boolean complete = true;
+				for (Map.Entry<String, String> group : groups.entrySet()) {
+					try {
+						service.requestAgent(group.getValue());
+						result.put(group.getValue(), group.getKey());
+					} catch (AgentAccessDeniedException e) {
+						// not a member of this group
+					} catch (Exception e) {
+						// Skip agents who are not known or cannot be read now.
+						complete = false;
 					}
-					return Response.status(Status.OK).entity(result).build();
-				} catch (EnvelopeNotFoundException e) {
-					ContactContainer cc = new ContactContainer();
-					Envelope env = null;
-					env = Context.get().createEnvelope(identifier);
-					env.setPublic();
-					env.setContent(cc);
-					service.storeEnvelope(env, contactStorer);
-					return Response.status(Status.OK).entity(result).build();
 				}
+				if (complete) {
+					// the suggestions start from the groups of the agent
+					service.contactGraph.setGroups(Context.get().getMainAgent().getIdentifier(), result.keySet());
+				}
+				return Response.status(Status.OK).entity(result).build();
 			} catch (Exception e) {
 				// write error to logfile and console
 				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
@@ -350,11 +736,12 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "Get Group from Name", notes = "Get a group via name.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Group found."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Group not found or storage problems.") })
+		@RateCost(2)
 		public Response getGroup(@PathParam("name") String name) {
 			String identifier = contactStorerAgentPWStatic + "_" + name;
 			try {
-				Envelope stored = Context.get().requestEnvelope(identifier);
-				ContactContainer cc = (ContactContainer) stored.getContent();
+				Envelope stored = service.requestEnvelope(identifier);
+				ContactContainer cc = service.readContainer(stored);
 				String id = cc.getGroupId(name);
 				if (id == null) {
 					return Response.status(Status.NOT_FOUND).entity("Group not found").build();
@@ -374,7 +761,8 @@ public class ContactService extends RESTService {
 		/**
 		 * Adds a group. Creates a group agent and stores the name in an enevelope. The
 		 * evnelope makes it possible to request the Agent again and an extra envelope
-		 * encrypted with the service accessible for all users.
+		 * encrypted with the service accessible for all users. The request returns
+		 * once the group is stored, the extra envelope is updated in the background.
 		 * 
 		 * @param name Name of your group
 		 * @return Returns a Response whether the group could be added or not.
@@ -387,72 +775,53 @@ public class ContactService extends RESTService {
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Group created."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems or group already exist.") })
 		@ApiOperation(value = "Create Group", notes = "Creates a group")
+		@RateCost(8)
 		public Response addGroup(@PathParam("name") String name) {
-			// Setting owner group members
-			Agent[] members = new Agent[1];
-			members[0] = Context.get().getMainAgent();
-			Envelope env = null;
-			Envelope env2 = null;
-			String id = "";
+			Agent owner = Context.get().getMainAgent();
 			String identifier = contactStorerAgentPWStatic + "_" + name;
-			String identifier2 = contactStorerAgentPWStatic;
-			GroupAgent groupAgent;
-			ContactContainer cc = null;
-			UserAgent contactStorer = null;
-			logger.log(Level.SEVERE, "Can't persist to network storage!ugauga" + identifier2, "ugauga");
+			String id;
+			String listIdentifier;
 			try {
-				try {
-					Context.get().requestEnvelope(identifier);
-					return Response.status(Status.BAD_REQUEST).entity("Group already exist").build();
-				} catch (EnvelopeNotFoundException e) {
-					cc = new ContactContainer();
-					// try to create group
-					groupAgent = Context.get().createGroupAgent(members);
-					id = groupAgent.getIdentifier();
-					groupAgent.unlock(Context.get().getMainAgent());
-					Context.get().storeAgent(groupAgent);
-					cc.addGroup(name, id);
-					env = Context.get().createEnvelope(identifier, groupAgent);
-					env.setContent(cc);
-					service.storeEnvelope(env, groupAgent);
-				}
-				// writing to user
-				try {
-					logger.log(Level.SEVERE, "agentcoming" + identifier2, "ugauga");
-					contactStorer = (UserAgent) Context.getCurrent().fetchAgent(
-							Context.getCurrent().getUserAgentIdentifierByLoginName(contactStorerAgentNameStatic));
-					logger.log(Level.SEVERE, "wherebla" + identifier2, "ugauga");
-					contactStorer.unlock(contactStorerAgentPWStatic);
-					logger.log(Level.SEVERE, "whereagent" + identifier2, "ugauga");
+				listIdentifier = service.groupListIdentifier(name);
+				// check for an existing group while the keys of the group agent are generated
+				Future<Boolean> exists = Context.get().getExecutor().submit(RequestTrace.wrap(() -> {
 					try {
-						// try to add group to group list
-						env2 = Context.get().requestEnvelope(identifier2, contactStorer);
-						cc = (ContactContainer) env2.getContent();
-						System.out.println(cc);
+						service.requestEnvelope(identifier);
+						return true;
 					} catch (EnvelopeNotFoundException e) {
-						// create new group list
-						cc = new ContactContainer();
-						env2 = Context.get().createEnvelope(identifier2, contactStorer);
-						env2.setPublic();
+						return false;
+					}
+				}));
+				GroupAgent groupAgent = null;
+				try {
+					groupAgent = Context.get().createGroupAgent(new Agent[] { owner });
+				} finally {
+					if (groupAgent == null) {
+						// the group agent could not be created, the check is not needed
+						exists.cancel(true);
 					}
-				} catch (Exception e) {
-					System.out.println("apparently no contact storer there or not unlockable");
-					logger.log(Level.SEVERE, "wrong" + identifier2, e);
 				}
-
+				if (exists.get()) {
+					return Response.status(Status.BAD_REQUEST).entity("Group already exist").build();
+				}
+				id = groupAgent.getIdentifier();
+				groupAgent.unlock(owner);
+				service.storeAgent(groupAgent);
+				ContactContainer cc = new ContactContainer();
+				cc.addGroup(name, id);
+				Envelope env = Context.get().createEnvelope(identifier, groupAgent);
+				env.setContent(cc);
+				service.writeEnvelope(env, groupAgent);
 			} catch (Exception e) {
 				// write error to logfile and console
 				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
-				e.printStackTrace();
 				return Response.status(Status.BAD_REQUEST).entity("Error").build();
 			}
-
-			cc.addGroup(name, id);
-			env2.setContent(cc);
-			if (contactStorer != null) {
-				service.storeEnvelope(env2, contactStorer);
-			} else
-				logger.log(Level.SEVERE, "Contactstorer is Null!", "No stacktrace bro");
+			// the group is stored, the group list is updated in the background
+			service.groupList.add(listIdentifier, name, id, Context.get().getExecutor());
+			service.contactGraph.addGroup(owner.getIdentifier(), id);
+			service.recordChange(ChangeJournal.GROUP, ChangeJournal.ADD, owner.getIdentifier(), name,
+					Collections.singleton(owner.getIdentifier()));
 			return Response.status(Status.OK).entity("" + id).build();
 		}
 
@@ -469,23 +838,28 @@ public class ContactService extends RESTService {
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Group removed."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Group does not exist or storage problems.") })
 		@ApiOperation(value = "Remove Group", notes = "Removes a group.")
+		@RateCost(5)
 		public Response removeGroup(@PathParam("name") String name) {
 			Envelope env = null;
 			try {
 
 				String identifier = contactStorerAgentPWStatic + "_" + name;
-				env = Context.get().requestEnvelope(identifier);
-				ContactContainer cc = (ContactContainer) env.getContent();
+				env = service.requestEnvelope(identifier);
+				ContactContainer cc = service.readContainer(env);
 				String groupID = cc.getGroups().get(name);
 				if (groupID == null) {
 					return Response.status(Status.NOT_FOUND).entity("Group not found").build();
 				}
 				cc.removeGroup(name);
 				env.setContent(cc);
-				GroupAgent ga = (GroupAgent) Context.get().requestAgent(groupID);
+				GroupAgent ga = (GroupAgent) service.requestAgent(groupID);
+				Set<String> audience = new HashSet<>(Arrays.asList(ga.getMemberList()));
 				ga.revokeMember(Context.get().getMainAgent());
-				Context.get().storeAgent(ga);
-				Context.get().storeEnvelope(env);
+				service.storeAgent(ga);
+				service.writeEnvelope(env);
+				service.contactGraph.removeGroup(Context.get().getMainAgent().getIdentifier(), groupID);
+				service.recordChange(ChangeJournal.GROUP, ChangeJournal.REMOVE,
+						Context.get().getMainAgent().getIdentifier(), name, audience);
 			} catch (Exception e) {
 				// write error to logfile and console
 				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
@@ -503,23 +877,22 @@ public class ContactService extends RESTService {
 		 */
 		@GET
 		@Path("/{name}/member")
-		@Produces(MediaType.APPLICATION_JSON)
+		@Produces({ MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE })
 		@ApiOperation(value = "Get Group Member", notes = "Get all members of your group.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got all members of a group"),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
+		@RateCost(5)
 		public Response getGroupMember(@PathParam("name") String name) {
 			JSONObject result = new JSONObject();
 			String identifier = contactStorerAgentPWStatic + "_" + name;
 			try {
-				Envelope stored = Context.get().requestEnvelope(identifier);
-				ContactContainer cc = (ContactContainer) stored.getContent();
-				GroupAgent groupAgent = (GroupAgent) Context.get()
-						.requestAgent(String.valueOf(cc.getGroups().get(name)));
+				Envelope stored = service.requestEnvelope(identifier);
+				ContactContainer cc = service.readContainer(stored);
+				GroupAgent groupAgent = (GroupAgent) service.requestAgent(String.valueOf(cc.getGroups().get(name)));
 				groupAgent.unlock(Context.get().getMainAgent());
 				String[] memberIds = groupAgent.getMemberList();
 				for (String memberId : memberIds) {
-					UserAgent user = (UserAgent) Context.get().fetchAgent(memberId);
-					result.put(memberId, user.getLoginName());
+					result.put(memberId, service.getLoginName(memberId));
 				}
 			} catch (Exception e) {
 				// write error to logfile and console
@@ -542,14 +915,14 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "Get Group Id", notes = "Get the Id of the given group.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got group id!"),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
+		@RateCost(3)
 		public Response getGroupId(@PathParam("name") String name) {
 			JSONObject result = new JSONObject();
 			String identifier = contactStorerAgentPWStatic + "_" + name;
 			try {
-				Envelope stored = Context.get().requestEnvelope(identifier);
-				ContactContainer cc = (ContactContainer) stored.getContent();
-				GroupAgent groupAgent = (GroupAgent) Context.get()
-						.requestAgent(String.valueOf(cc.getGroups().get(name)));
+				Envelope stored = service.requestEnvelope(identifier);
+				ContactContainer cc = service.readContainer(stored);
+				GroupAgent groupAgent = (GroupAgent) service.requestAgent(String.valueOf(cc.getGroups().get(name)));
 				groupAgent.unlock(Context.get().getMainAgent());
 				System.out.println(groupAgent);
 				System.out.println(groupAgent.getIdentifier());
@@ -578,30 +951,44 @@ public class ContactService extends RESTService {
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems."),
 				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Agent does not exist.") })
 		@ApiOperation(value = "Add Group Member", notes = "Add a member to a group.")
+		@RateCost(6)
 		public Response addGroupMember(@PathParam("name") String groupName, @PathParam("user") String userName) {
 			Envelope env = null;
 			String addID = "-1";
 			Agent test = null;
 			GroupAgent groupAgent = null;
+			String identifier = contactStorerAgentPWStatic + "_" + groupName;
+			// the group agent is read, modified and stored as well
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
-				String identifier = contactStorerAgentPWStatic + "_" + groupName;
-				// Get envelope
-				env = Context.get().requestEnvelope(identifier, Context.get().getMainAgent());
-				ContactContainer cc = (ContactContainer) env.getContent();
-				groupAgent = (GroupAgent) Context.get().requestAgent(cc.getGroups().get(groupName));
-				addID = Context.get().getUserAgentIdentifierByLoginName(userName);
-				test = Context.get().fetchAgent(addID);
-				groupAgent.addMember(test);
-				Context.get().storeAgent(groupAgent);
-				env.setContent(cc);
-			} catch (AgentException e1) {
-				return Response.status(Status.NOT_FOUND).entity("Agent not found.").build();
-			} catch (Exception e) {
-				// write error to logfile and console
-				logger.log(Level.SEVERE, "Can't add member!", e);
-				return Response.status(Status.BAD_REQUEST).entity("Error").build();
+				try {
+					// Get envelope
+					env = service.requestEnvelope(identifier, Context.get().getMainAgent());
+					ContactContainer cc = service.readContainer(env);
+					groupAgent = (GroupAgent) service.requestAgent(cc.getGroups().get(groupName));
+					addID = service.resolveLoginName(userName);
+					test = service.fetchAgent(addID);
+					groupAgent.addMember(test);
+					service.storeAgent(groupAgent);
+					env.setContent(cc);
+				} catch (AgentException e1) {
+					return Response.status(Status.NOT_FOUND).entity("Agent not found.").build();
+				} catch (Exception e) {
+					// write error to logfile and console
+					logger.log(Level.SEVERE, "Can't add member!", e);
+					return Response.status(Status.BAD_REQUEST).entity("Error").build();
+				}
+				try {
+					service.writeEnvelope(env, groupAgent);
+				} catch (EnvelopeException e) {
+					return service.storeFailed(env, e);
+				}
+			} finally {
+				lock.unlock();
 			}
-			service.storeEnvelope(env, groupAgent);
+			service.contactGraph.addGroup(addID, groupAgent.getIdentifier());
+			service.recordChange(ChangeJournal.MEMBER, ChangeJournal.ADD, addID, groupName,
+					Arrays.asList(groupAgent.getMemberList()));
 			return Response.status(Status.OK).entity("Added to group.").build();
 		}
 
@@ -620,29 +1007,40 @@ public class ContactService extends RESTService {
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems."),
 				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Agent does not exist.") })
 		@ApiOperation(value = "Remove Group Member", notes = "Removes a member from a group.")
+		@RateCost(6)
 		public Response removeGroupMember(@PathParam("name") String groupName, @PathParam("user") String userName) {
 			Envelope env = null;
 			GroupAgent groupAgent = null;
+			String identifier = contactStorerAgentPWStatic + "_" + groupName;
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
-				String identifier = contactStorerAgentPWStatic + "_" + groupName;
-				env = Context.get().requestEnvelope(identifier);
-				ContactContainer cc = (ContactContainer) env.getContent();
+				env = service.requestEnvelope(identifier);
+				ContactContainer cc = service.readContainer(env);
 				try {
-					groupAgent = (GroupAgent) Context.get().requestAgent(cc.getGroups().get(groupName));
+					groupAgent = (GroupAgent) service.requestAgent(cc.getGroups().get(groupName));
 				} catch (AgentException e) {
 					// Agent not found?
 					e.printStackTrace();
 					return Response.status(Status.NOT_FOUND).entity("GroupAgent not found.").build();
 				}
-				String addID = Context.get().getUserAgentIdentifierByLoginName(userName);
-				groupAgent.revokeMember(Context.get().fetchAgent(addID));
-				service.storeEnvelope(env, groupAgent);
+				String addID = service.resolveLoginName(userName);
+				Set<String> audience = new HashSet<>(Arrays.asList(groupAgent.getMemberList()));
+				groupAgent.revokeMember(service.fetchAgent(addID));
+				try {
+					service.writeEnvelope(env, groupAgent);
+				} catch (EnvelopeException e) {
+					return service.storeFailed(env, e);
+				}
 
-				Context.get().storeAgent(groupAgent);
+				service.storeAgent(groupAgent);
+				service.contactGraph.removeGroup(addID, groupAgent.getIdentifier());
+				service.recordChange(ChangeJournal.MEMBER, ChangeJournal.REMOVE, addID, groupName, audience);
 			} catch (Exception e) {
 				// write error to logfile and console
 				logger.log(Level.SEVERE, "Can't remove member!", e);
 				return Response.status(Status.BAD_REQUEST).entity("Error").build();
+			} finally {
+				lock.unlock();
 			}
 			return Response.status(Status.OK).entity("Removed from group.").build();
 		}
@@ -665,6 +1063,7 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "Add to Address Book", notes = "Add yourself to the address book.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Added"),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems or already in list.") })
+		@RateCost(5)
 		public Response addToAddressBook() {
 			Agent owner = Context.get().getMainAgent();
 			String identifier = address_prefix;
@@ -672,30 +1071,43 @@ public class ContactService extends RESTService {
 			boolean added = false;
 			ContactContainer cc = null;
 			UserAgent contactStorer = null;
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
-				contactStorer = (UserAgent) Context.getCurrent().fetchAgent(
-						Context.getCurrent().getUserAgentIdentifierByLoginName(contactStorerAgentNameStatic));
-				contactStorer.unlock(contactStorerAgentPWStatic);
 				try {
-					env = Context.get().requestEnvelope(identifier, contactStorer);
-					cc = (ContactContainer) env.getContent();
-					added = cc.addContact(owner.getIdentifier());
-				} catch (EnvelopeNotFoundException ex) {
-					cc = new ContactContainer();
-					added = cc.addContact(owner.getIdentifier());
-					env = Context.get().createEnvelope(identifier, contactStorer);
-					env.setPublic();
+					contactStorer = service.getContactStorer();
+					try {
+						env = service.requestEnvelope(identifier, contactStorer);
+						cc = service.readContainer(env);
+					} catch (EnvelopeNotFoundException ex) {
+						cc = new ContactContainer();
+						env = Context.get().createEnvelope(identifier, contactStorer);
+						env.setPublic();
+					}
+				} catch (Exception e) {
+					// write error to logfile and console
+					logger.log(Level.SEVERE, "Can't persist to network storage!", e);
+					// create and publish a monitoring message
+					return Response.status(Status.BAD_REQUEST).entity("Error").build();
 				}
-			} catch (Exception e) {
-				// write error to logfile and console
-				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
-				// create and publish a monitoring message
-				return Response.status(Status.BAD_REQUEST).entity("Error").build();
-			}
 
-			env.setContent(cc);
-			service.storeEnvelope(env, contactStorer);
+				service.applyPending(identifier, cc.getUserList());
+				added = cc.addContact(owner.getIdentifier());
+				if (!service.isWriteBehind()) {
+					env.setContent(cc);
+					try {
+						service.writeEnvelope(env, contactStorer);
+					} catch (EnvelopeException e) {
+						return service.storeFailed(env, e);
+					}
+				} else if (added
+						&& !service.logMutation(identifier, WriteBehindLog.ADD, owner.getIdentifier())) {
+					return Response.status(Status.BAD_REQUEST).entity("Error").build();
+				}
+			} finally {
+				lock.unlock();
+			}
 			if (added) {
+				service.recordChange(ChangeJournal.ADDRESS_BOOK, ChangeJournal.ADD, owner.getIdentifier(), null, null);
 				return Response.status(Status.OK).entity("Added to addressbook.").build();
 			} else {
 				return Response.status(Status.BAD_REQUEST).entity("Already in list.").build();
@@ -713,36 +1125,51 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "Remove from Address Book", notes = "Removes yourself from the address book.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Removed from address book."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems or you were not in the list.") })
+		@RateCost(5)
 		public Response removeFromAddressBook() {
 			String identifier = address_prefix;
 			Envelope env = null;
 			ContactContainer cc = null;
 			boolean deleted = false;
 			UserAgent contactStorer = null;
+			Lock lock = service.envelopeLocks.lock(identifier);
 			try {
-				contactStorer = (UserAgent) Context.getCurrent().fetchAgent(
-						Context.getCurrent().getUserAgentIdentifierByLoginName(contactStorerAgentNameStatic));
-				contactStorer.unlock(contactStorerAgentPWStatic);
 				try {
-					env = Context.get().requestEnvelope(identifier, contactStorer);
-					cc = (ContactContainer) env.getContent();
-					String userID = Context.get().getMainAgent().getIdentifier();
-					deleted = cc.removeContact(userID);
-				} catch (EnvelopeNotFoundException ex) {
-					cc = new ContactContainer();
-					env = Context.get().createEnvelope(identifier, contactStorer);
-					env.setPublic();
+					contactStorer = service.getContactStorer();
+					try {
+						env = service.requestEnvelope(identifier, contactStorer);
+						cc = service.readContainer(env);
+					} catch (EnvelopeNotFoundException ex) {
+						cc = new ContactContainer();
+						env = Context.get().createEnvelope(identifier, contactStorer);
+						env.setPublic();
+					}
+				} catch (Exception e) {
+					// write error to logfile and console
+					logger.log(Level.SEVERE, "Can't persist to network storage!", e);
+					// create and publish a monitoring message
+					return Response.status(Status.BAD_REQUEST).entity("Could not be removed from list.").build();
 				}
-			} catch (Exception e) {
-				// write error to logfile and console
-				logger.log(Level.SEVERE, "Can't persist to network storage!", e);
-				// create and publish a monitoring message
-				return Response.status(Status.BAD_REQUEST).entity("Could not be removed from list.").build();
-			}
 
-			env.setContent(cc);
-			service.storeEnvelope(env, contactStorer);
+				String userID = Context.get().getMainAgent().getIdentifier();
+				service.applyPending(identifier, cc.getUserList());
+				deleted = cc.removeContact(userID);
+				if (!service.isWriteBehind()) {
+					env.setContent(cc);
+					try {
+						service.writeEnvelope(env, contactStorer);
+					} catch (EnvelopeException e) {
+						return service.storeFailed(env, e);
+					}
+				} else if (deleted && !service.logMutation(identifier, WriteBehindLog.REMOVE, userID)) {
+					return Response.status(Status.BAD_REQUEST).entity("Could not be removed from list.").build();
+				}
+			} finally {
+				lock.unlock();
+			}
 			if (deleted) {
+				service.recordChange(ChangeJournal.ADDRESS_BOOK, ChangeJournal.REMOVE,
+						Context.get().getMainAgent().getIdentifier(), null, null);
 				return Response.status(Status.OK).entity("Removed from list.").build();
 			} else {
 				return Response.status(Status.NOT_FOUND).entity("You were not in the list.").build();
@@ -752,44 +1179,49 @@ public class ContactService extends RESTService {
 		/**
 		 * Function to get the address book.
 		 * 
+		 * @param fields Fields of the users to return, see {@link FieldSelection}.
 		 * @return Returns a JSON string containing users (id:name).
 		 * @since 0.1
 		 */
 		@GET
-		@Produces(MediaType.APPLICATION_JSON)
+		@Produces({ MediaType.APPLICATION_JSON, Cbor.MEDIA_TYPE })
 		@ApiOperation(value = "Get Address Book", notes = "Get all contacts from the address book.")
 		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Contacts received."),
 				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Storage problems.") })
-		public Response getAddressBook() {
+		@RateCost(5)
+		public Response getAddressBook(@QueryParam(FieldSelection.PARAMETER) String fields) {
 			String identifier = address_prefix;
-			JSONObject result = new JSONObject();
+			FieldSelection selection;
+			try {
+				selection = FieldSelection.parse(fields);
+			} catch (IllegalArgumentException e) {
+				return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+			}
 			UserAgent contactStorer = null;
 			try {
-				contactStorer = (UserAgent) Context.getCurrent().fetchAgent(
-						Context.getCurrent().getUserAgentIdentifierByLoginName(contactStorerAgentNameStatic));
-				contactStorer.unlock(contactStorerAgentPWStatic);
 				try {
-					Envelope stored = Context.get().requestEnvelope(identifier, contactStorer);
-					ContactContainer cc = (ContactContainer) stored.getContent();
-					HashSet<String> list = cc.getUserList();
-					UserAgent user;
-					for (String l : list) {
-						try {
-							user = (UserAgent) Context.get().fetchAgent(l);
-							result.put(user.getIdentifier(), user.getLoginName());
-						} catch (AgentException | ClassCastException e1) {
-							// Skip unknown agents
-							e1.printStackTrace();
-						}
-					}
+					// concurrent callers share one fetch of the address book
+					ContactContainer cc = service.fetchShared(identifier, () -> service
+							.readContainer(service.requestEnvelope(identifier, service.getContactStorer())));
+					Set<String> list = service.withPending(identifier, cc.getUserList());
+					Set<String> unknown = new HashSet<>();
+					// Unknown agents are skipped, they are removed in the background. Agents
+					// which cannot be read are skipped as well.
+					Object result = service.projectAgents(list, selection, unknown, true);
+					// the address book is owned by the contact storer
+					service.pruneLater(identifier, unknown, null);
 					return Response.status(Status.OK).entity(result).build();
 				} catch (EnvelopeNotFoundException ex) {
-					Envelope env = null;
 					ContactContainer cc = new ContactContainer();
-					env = Context.get().createEnvelope(identifier, contactStorer);
-					env.setPublic();
-					env.setContent(cc);
-					service.storeEnvelope(env, contactStorer);
+					if (!service.isWriteBehind()) {
+						contactStorer = service.getContactStorer();
+						Envelope env = Context.get().createEnvelope(identifier, contactStorer);
+						env.setPublic();
+						env.setContent(cc);
+						service.writeEnvelope(env, contactStorer);
+					}
+					Set<String> list = service.withPending(identifier, cc.getUserList());
+					Object result = service.projectAgents(list, selection, null, true);
 					return Response.status(Status.OK).entity(result).build();
 				}
 			} catch (Exception e) {
@@ -822,14 +1254,23 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "Update User Information", notes = "Updates the name and the userimage.")
 		public Response updateUserInformationREST(String content) {
 			try {
-				JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
-				JSONObject params = (JSONObject) parser.parse(content);
-				HashMap<String, Serializable> m = new HashMap<>();
-				m.put("firstName", (String) params.get("firstName"));
-				m.put("lastName", (String) params.get("lastName"));
-				m.put("userImage", (String) params.get("userImage"));
+				HashMap<String, Serializable> m = parseUserInformation(content);
+				// store an uploaded image once by its hash, the profile only refers to it
+				String image = (String) m.get("userImage");
+				Avatar avatar = Avatar.fromDataUrl(image);
+				if (avatar == null && image != null && image.startsWith("data:")) {
+					return Response.status(Status.BAD_REQUEST).entity("Only PNG, JPEG, GIF and WebP images.")
+							.build();
+				}
+				if (avatar != null) {
+					if (avatar.getData().length > service.avatarMaxBytes) {
+						return Response.status(Status.BAD_REQUEST).entity("Image too large.").build();
+					}
+					m.put("userImage", service.storeAvatar(avatar));
+				}
 				// RMI call without parameters
-				Object result = Context.get().invoke(USER_INFORMATION_SERVICE, "set", new Serializable[] { m });
+				Object result = service.invoke(USER_INFORMATION_SERVICE, "set", new Serializable[] { m });
+				service.profileCache.invalidate(Context.get().getMainAgent().getIdentifier());
 				if (result == null) {
 					return Response.status(Status.BAD_REQUEST).entity("Setting user information failed. No result.")
 							.build();
@@ -861,7 +1302,7 @@ public class ContactService extends RESTService {
 			try {
 				// RMI call without parameters
 				String[] fields = { "firstName", "lastName", "userImage" };
-				Object result = Context.get().invoke(USER_INFORMATION_SERVICE, "get",
+				Object result = service.invoke(USER_INFORMATION_SERVICE, "get",
 						new Serializable[] { Context.get().getMainAgent().getIdentifier(), fields });
 				if (result == null) {
 					return Response.status(Status.BAD_REQUEST).entity("Getting user information failed. No result.")
@@ -881,6 +1322,89 @@ public class ContactService extends RESTService {
 			return Response.status(Status.OK).entity(returnString).build();
 		}
 
+		/**
+		 * Gets the image of a user, if the user made it visible. Images stored by hash
+		 * are served with their hash as ETag, older profiles holding the image itself
+		 * are served as well.
+		 * 
+		 * @param name        The name of the requested user.
+		 * @param size        <code>thumbnail</code> to get the thumbnail if there is
+		 *                    one.
+		 * @param ifNoneMatch ETag of a cached copy of the image.
+		 * @return The image.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("/{name}/image")
+		@ApiOperation(value = "Get User Image", notes = "Returns the image of a user.")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got the image."),
+				@ApiResponse(code = HttpURLConnection.HTTP_NOT_MODIFIED, message = "The cached image is current."),
+				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "User or image not found.") })
+		@RateCost(2)
+		public Response getUserImage(@PathParam("name") String name, @QueryParam("size") String size,
+				@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+			try {
+				String agentId = service.resolveLoginName(name);
+				Map<String, Boolean> permissions = service.permissionCache.get(agentId);
+				if (permissions != null && Boolean.FALSE.equals(permissions.get("userImage"))
+						&& !agentId.equals(Context.get().getMainAgent().getIdentifier())) {
+					return Response.status(Status.NOT_FOUND).entity("No image.").build();
+				}
+				Object result = service.invoke(USER_INFORMATION_SERVICE, "get", agentId, new String[] { "userImage" });
+				Object value = result instanceof Map ? ((Map<?, ?>) result).get("userImage") : null;
+				if (!(value instanceof String) || ((String) value).isEmpty()) {
+					return Response.status(Status.NOT_FOUND).entity("No image.").build();
+				}
+				String hash = Avatar.hashOf((String) value);
+				Avatar avatar = hash == null ? Avatar.fromDataUrl((String) value) : service.loadAvatar(hash);
+				if (avatar == null) {
+					return Response.status(Status.NOT_FOUND).entity("No image.").build();
+				}
+				// the image of a name changes, so clients revalidate after a while
+				return service.avatarResponse(avatar, hash == null ? avatar.getHash() : hash, size, ifNoneMatch,
+						"public, max-age=" + service.avatarMaxAgeSeconds);
+			} catch (AgentException | EnvelopeNotFoundException e) {
+				return Response.status(Status.NOT_FOUND).entity("No image.").build();
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Can't get user image!", e);
+				return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+			}
+		}
+
+		/**
+		 * Gets an image by its hash. The content of a hash never changes, so the
+		 * image may be cached forever.
+		 * 
+		 * @param hash        Hash of the image.
+		 * @param size        <code>thumbnail</code> to get the thumbnail if there is
+		 *                    one.
+		 * @param ifNoneMatch ETag of a cached copy of the image.
+		 * @return The image.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("/image/{hash}")
+		@ApiOperation(value = "Get Image", notes = "Returns an image by its hash.")
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Got the image."),
+				@ApiResponse(code = HttpURLConnection.HTTP_NOT_MODIFIED, message = "The cached image is current."),
+				@ApiResponse(code = HttpURLConnection.HTTP_NOT_FOUND, message = "Image not found.") })
+		@RateCost(1)
+		public Response getImage(@PathParam("hash") String hash, @QueryParam("size") String size,
+				@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+			if (!Avatar.isHash(hash)) {
+				return Response.status(Status.NOT_FOUND).entity("No image.").build();
+			}
+			try {
+				return service.avatarResponse(service.loadAvatar(hash), hash, size, ifNoneMatch,
+						"public, max-age=31536000, immutable");
+			} catch (EnvelopeNotFoundException e) {
+				return Response.status(Status.NOT_FOUND).entity("No image.").build();
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Can't get image!", e);
+				return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+			}
+		}
+
 		/**
 		 * Function to get the information of a user.
 		 * 
@@ -900,8 +1424,8 @@ public class ContactService extends RESTService {
 			try {
 				// RMI call without parameters
 				String[] fields = { "firstName", "lastName", "userImage" };
-				Object result = Context.get().invoke(USER_INFORMATION_SERVICE, "get",
-						new Serializable[] { Context.get().getUserAgentIdentifierByLoginName(name), fields });
+				Object result = service.invoke(USER_INFORMATION_SERVICE, "get",
+						new Serializable[] { service.resolveLoginName(name), fields });
 				if (result != null) {
 					@SuppressWarnings({ "unchecked" })
 					HashMap<String, Serializable> hashMap = (HashMap<String, Serializable>) result;
@@ -938,10 +1462,7 @@ public class ContactService extends RESTService {
 		public Response getUserPermissions() {
 			String returnString = "No Response";
 			try {
-				// RMI call
-				String[] fields = { "firstName", "lastName", "userImage" };
-				Object result = Context.get().invoke(USER_INFORMATION_SERVICE, "getPermissions",
-						new Serializable[] { fields });
+				Object result = service.getPermissions();
 				if (result == null) {
 					return Response.status(Status.BAD_REQUEST).entity("Getting permissions failed. No result.").build();
 				} else if (!(result instanceof HashMap<?, ?>)) {
@@ -974,14 +1495,12 @@ public class ContactService extends RESTService {
 		@ApiOperation(value = "updateUserPermission", notes = "Updates the name and the userimage")
 		public Response updateUserPermissionREST(String content) {
 			try {
-				JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
-				JSONObject params = (JSONObject) parser.parse(content);
-				HashMap<String, Boolean> m = new HashMap<>();
-				m.put("firstName", (Boolean) params.get("firstName"));
-				m.put("lastName", (Boolean) params.get("lastName"));
-				m.put("userImage", (Boolean) params.get("userImage"));
+				HashMap<String, Boolean> m = parsePermissions(content);
 				// RMI call without parameters
-				Object result = Context.get().invoke(USER_INFORMATION_SERVICE, "setPermissions", m);
+				Object result = service.invoke(USER_INFORMATION_SERVICE, "setPermissions", m);
+				// the visible fields of the cached profile may have changed
+				service.profileCache.invalidate(Context.get().getMainAgent().getIdentifier());
+				service.permissionCache.invalidate(Context.get().getMainAgent().getIdentifier());
 				if (result == null) {
 					return Response.status(Status.BAD_REQUEST).entity("Setting permissions failed. No result.").build();
 				} else if (!(result instanceof Boolean)) {
@@ -1011,8 +1530,7 @@ public class ContactService extends RESTService {
 		@Path("/{id}")
 		public Response getName(@PathParam("id") String id) {
 			try {
-				UserAgent user = (UserAgent) Context.get().fetchAgent(id);
-				String name = user.getLoginName();
+				String name = service.getLoginName(id);
 				return Response.status(Status.OK).entity(name).build();
 			} catch (AgentException e) {
 				String error = "Agent not found";
@@ -1021,22 +1539,1624 @@ public class ContactService extends RESTService {
 		}
 	}
 
+	@Path("/metrics") // this is the root resource
+	public static class MetricsResource {
+		ContactService service = (ContactService) Context.get().getService();
+
+		/**
+		 * Function to get the metrics of this node in the Prometheus text exposition
+		 * format. Contains latency percentiles for every resource method and counters
+		 * for the storage and RMI operations.
+		 * 
+		 * @return The metrics as plain text.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Produces(MediaType.TEXT_PLAIN)
+		@RateCost(0)
+		public Response getMetrics() {
+			return Response.status(Status.OK).type("text/plain; version=0.0.4")
+					.entity(service.getMetrics().toPrometheus()).build();
+		}
+
+		/**
+		 * Function to get the most recent requests which took longer than the
+		 * configured slow-request threshold, including their per-phase breakdown.
+		 * 
+		 * @return A JSON array of slow requests, oldest first.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("/slow")
+		@Produces(MediaType.APPLICATION_JSON)
+		@RateCost(0)
+		public Response getSlowRequests() {
+			return Response.status(Status.OK).entity(service.slowRequests.toJSON().toJSONString()).build();
+		}
+	}
+
+	@Path("/admin") // this is the root resource
+	public static class AdminResource {
+		ContactService service = (ContactService) Context.get().getService();
+
+		/**
+		 * Function to get the settings of this node which can be changed while the
+		 * service runs. Only agents listed in <code>adminAgents</code> may use it.
+		 * 
+		 * @return A JSON object with the current value of every setting.
+		 * @since 1.1.2
+		 */
+		@GET
+		@Path("/settings")
+		@Produces(MediaType.APPLICATION_JSON)
+		@RateCost(0)
+		public Response getSettings() {
+			if (!service.isAdmin()) {
+				return Response.status(Status.FORBIDDEN).entity("Not an administrator.").build();
+			}
+			return Response.status(Status.OK).entity(service.settings.toJSON().toJSONString()).build();
+		}
+
+		/**
+		 * Function to change settings of this node without a restart. Caches are
+		 * resized right away. The body contains only the settings to change, either
+		 * all of them are applied or none. Changes are not written back to the
+		 * properties file.
+		 * 
+		 * @param content A JSON object with the new values by setting name.
+		 * @return A JSON object with the current value of every setting.
+		 * @since 1.1.2
+		 */
+		@POST
+		@Path("/settings")
+		@Produces(MediaType.APPLICATION_JSON)
+		@ApiResponses(value = { @ApiResponse(code = HttpURLConnection.HTTP_OK, message = "Settings changed"),
+				@ApiResponse(code = HttpURLConnection.HTTP_BAD_REQUEST, message = "Unknown setting or invalid value."),
+				@ApiResponse(code = HttpURLConnection.HTTP_FORBIDDEN, message = "Not an administrator.") })
+		@ApiOperation(value = "updateSettings", notes = "Changes the runtime settings of this node")
+		@RateCost(0)
+		public Response updateSettings(String content) {
+			if (!service.isAdmin()) {
+				return Response.status(Status.FORBIDDEN).entity("Not an administrator.").build();
+			}
+			try {
+				JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
+				Object values = parser.parse(content);
+				if (!(values instanceof JSONObject)) {
+					return Response.status(Status.BAD_REQUEST).entity("Expected a JSON object.").build();
+				}
+				Map<String, Object> previous = service.settings.apply((JSONObject) values);
+				service.metrics.increment("settings_changes", previous.size());
+				logger.info("settings changed by " + Context.get().getMainAgent().getIdentifier() + ": " + previous
+						+ " -> " + values);
+			} catch (ParseException | IllegalArgumentException e) {
+				return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+			}
+			return Response.status(Status.OK).entity(service.settings.toJSON().toJSONString()).build();
+		}
+	}
+
 	// //////////////////////////////////////////////////////////////////////////////////////
 	// RMI Calls
 	// //////////////////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Envelope helper method for storing an envelope.
+	 * Parses the body of a user information update.
 	 * 
-	 * @param env   Envelope.
-	 * @param owner Agent who owns the envelope.
-	 * @since 0.1
+	 * @param content A JSON string containing firstName, lastName and the
+	 *                userImage.
+	 * @return The values to pass to the UserInformation Service.
+	 * @throws ParseException If the content is no valid JSON.
+	 * @since 1.1.2
 	 */
-	private void storeEnvelope(Envelope env, Agent owner) {
-		try {
-			Context.get().storeEnvelope(env, owner);
-		} catch (EnvelopeException e) {
-			e.printStackTrace();
-		}
+	static HashMap<String, Serializable> parseUserInformation(String content) throws ParseException {
+		JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
+		JSONObject params = (JSONObject) parser.parse(content);
+		HashMap<String, Serializable> m = new HashMap<>();
+		m.put("firstName", (String) params.get("firstName"));
+		m.put("lastName", (String) params.get("lastName"));
+		m.put("userImage", (String) params.get("userImage"));
+		return m;
+	}
+
+	/**
+	 * Parses the body of a permission update.
+	 * 
+	 * @param content JSON string containing boolean values for firstName, lastName
+	 *                and the userImage.
+	 * @return The permissions to pass to the UserInformation Service.
+	 * @throws ParseException If the content is no valid JSON.
+	 * @since 1.1.2
+	 */
+	static HashMap<String, Boolean> parsePermissions(String content) throws ParseException {
+		JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
+		JSONObject params = (JSONObject) parser.parse(content);
+		HashMap<String, Boolean> m = new HashMap<>();
+		m.put("firstName", (Boolean) params.get("firstName"));
+		m.put("lastName", (Boolean) params.get("lastName"));
+		m.put("userImage", (Boolean) params.get("userImage"));
+		return m;
+	}
+
+	/**
+	 * Logs and counts an envelope that could not be stored and builds the
+	 * response of the request that changed it. The change is not applied, so
+	 * nothing must be recorded or published for it.
+	 *
+	 * @param env Envelope that could not be stored.
+	 * @param e   Cause of the failure.
+	 * @return The error response.
+	 * @since 1.1.2
+	 */
+	private Response storeFailed(Envelope env, EnvelopeException e) {
+		metrics.increment("envelope_store_failures", 1);
+		logger.log(Level.SEVERE, "Can't store envelope " + env.getIdentifier() + "!", e);
+		return Response.status(Status.INTERNAL_SERVER_ERROR).entity("Could not be stored.").build();
+	}
+
+	/**
+	 * Stores an envelope and records the operation in the service metrics.
+	 * Failures are passed to the caller.
+	 *
+	 * @param env   Envelope.
+	 * @param owner Agent who owns the envelope.
+	 * @throws EnvelopeException If the envelope could not be stored.
+	 * @since 1.1.2
+	 */
+	private void writeEnvelope(Envelope env, Agent owner) throws EnvelopeException {
+		compressContainer(env);
+		long start = System.nanoTime();
+		try {
+			Context.get().storeEnvelope(env, owner);
+		} finally {
+			recordOperation("storeEnvelope", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Applies the container compression threshold of this service to the content
+	 * of an envelope which is about to be stored.
+	 *
+	 * @param env Envelope.
+	 * @since 1.1.2
+	 */
+	private void compressContainer(Envelope env) {
+		Serializable content = env.getContent();
+		if (content instanceof ContactContainer) {
+			compressContainer((ContactContainer) content);
+		}
+	}
+
+	/**
+	 * @param cc Container which is about to be stored.
+	 * @since 1.1.2
+	 */
+	void compressContainer(ContactContainer cc) {
+		cc.compressWith(containerCompressionThresholdBytes, metrics);
+	}
+
+	/**
+	 * Stores an envelope signed by the main agent and records the operation in the
+	 * service metrics.
+	 *
+	 * @param env Envelope.
+	 * @throws EnvelopeException If the envelope could not be stored.
+	 * @since 1.1.2
+	 */
+	private void writeEnvelope(Envelope env) throws EnvelopeException {
+		compressContainer(env);
+		long start = System.nanoTime();
+		try {
+			Context.get().storeEnvelope(env);
+		} finally {
+			recordOperation("storeEnvelope", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Requests an envelope using the main agent and records the operation in the
+	 * service metrics.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @return The requested envelope.
+	 * @throws EnvelopeException If the envelope does not exist or cannot be
+	 *                           opened.
+	 * @since 1.1.2
+	 */
+	private Envelope requestEnvelope(String identifier) throws EnvelopeException {
+		long start = System.nanoTime();
+		try {
+			if (!hedgingEnabled) {
+				return Context.get().requestEnvelope(identifier);
+			}
+			// capture the main agent, attempts run on other threads
+			Agent using = Context.get().getMainAgent();
+			return readEnvelope(identifier, () -> Context.get().requestEnvelope(identifier, using));
+		} finally {
+			recordOperation("requestEnvelope", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Requests an envelope using the given agent and records the operation in the
+	 * service metrics.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param using      Agent used to open the envelope.
+	 * @return The requested envelope.
+	 * @throws EnvelopeException If the envelope does not exist or cannot be
+	 *                           opened.
+	 * @since 1.1.2
+	 */
+	private Envelope requestEnvelope(String identifier, Agent using) throws EnvelopeException {
+		long start = System.nanoTime();
+		try {
+			if (!hedgingEnabled) {
+				return Context.get().requestEnvelope(identifier, using);
+			}
+			return readEnvelope(identifier, () -> Context.get().requestEnvelope(identifier, using));
+		} finally {
+			recordOperation("requestEnvelope", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Fetches a (locked) agent and records the operation in the service metrics.
+	 * Agents which were not found are remembered for a short time, so repeated
+	 * lookups of the same unknown id fail without a network request.
+	 *
+	 * @param agentId Identifier of the agent.
+	 * @return The fetched agent.
+	 * @throws AgentException If the agent does not exist or cannot be fetched.
+	 * @since 1.1.2
+	 */
+	private Agent fetchAgent(String agentId) throws AgentException {
+		if (unknownAgents.contains(agentId)) {
+			metrics.increment("negative_cache_hits", 1);
+			throw new AgentNotFoundException("Agent " + agentId + " not found (cached)");
+		}
+		try {
+			return lookupAgent(agentId);
+		} catch (AgentNotFoundException e) {
+			unknownAgents.add(agentId, negativeCacheTtlMs);
+			throw e;
+		}
+	}
+
+	/**
+	 * Fetches a (locked) agent bypassing the cache of unknown agents.
+	 *
+	 * @param agentId Identifier of the agent.
+	 * @return The fetched agent.
+	 * @throws AgentException If the agent does not exist or cannot be fetched.
+	 * @since 1.1.2
+	 */
+	private Agent lookupAgent(String agentId) throws AgentException {
+		long start = System.nanoTime();
+		try {
+			if (!hedgingEnabled) {
+				return Context.get().fetchAgent(agentId);
+			}
+			return hedgedRead("fetchAgent", () -> Context.get().fetchAgent(agentId), agentReadTimeoutMs);
+		} catch (AgentException | RuntimeException e) {
+			throw e;
+		} catch (TimeoutException e) {
+			throw new AgentOperationFailedException("Fetching agent " + agentId + " timed out", e);
+		} catch (Exception e) {
+			throw new AgentOperationFailedException("Fetching agent " + agentId + " failed", e);
+		} finally {
+			recordOperation("fetchAgent", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Requests an envelope through the hedging layer and maps its failures to
+	 * envelope exceptions.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param read       Requests the envelope.
+	 * @return The requested envelope.
+	 * @throws EnvelopeException If the envelope does not exist, cannot be opened
+	 *                           or the request timed out.
+	 * @since 1.1.2
+	 */
+	private Envelope readEnvelope(String identifier, SingleFlight.Loader<Envelope> read) throws EnvelopeException {
+		try {
+			return hedgedRead("requestEnvelope", read, envelopeReadTimeoutMs);
+		} catch (EnvelopeException | RuntimeException e) {
+			throw e;
+		} catch (TimeoutException e) {
+			throw new EnvelopeOperationFailedException("Request of envelope " + identifier + " timed out", e);
+		} catch (Exception e) {
+			throw new EnvelopeOperationFailedException("Request of envelope " + identifier + " failed", e);
+		}
+	}
+
+	/**
+	 * Performs a read with a timeout. If the read takes longer than the observed
+	 * 95th percentile of the operation, a second attempt is sent and the first
+	 * successful attempt is used, as far as the hedge budget allows. Never use this
+	 * for writes.
+	 *
+	 * @param operation Name of the operation in the service metrics.
+	 * @param read      The read.
+	 * @param timeoutMs Time after which the read fails.
+	 * @return The read value.
+	 * @throws Exception The failure of the read or a {@link TimeoutException}.
+	 * @since 1.1.2
+	 */
+	private <V> V hedgedRead(String operation, SingleFlight.Loader<V> read, long timeoutMs) throws Exception {
+		long hedgeDelay = 0;
+		LatencyHistogram observed = metrics.getOperation(operation);
+		if (observed != null && observed.getCount() >= HEDGE_MIN_SAMPLES) {
+			hedgeDelay = Math.max(TimeUnit.MICROSECONDS.toNanos(observed.percentile(0.95)),
+					TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs));
+		}
+		return hedgedReads.read(read, RequestTrace.wrap(Context.get().getExecutor()), hedgeDelay, timeoutMs, hedgeBudgetPercent);
+	}
+
+	/**
+	 * Requests an agent unlocked by the main agent and records the operation in the
+	 * service metrics.
+	 *
+	 * @param agentId Identifier of the agent.
+	 * @return The unlocked agent.
+	 * @throws AgentException If the agent does not exist or cannot be unlocked.
+	 * @since 1.1.2
+	 */
+	private Agent requestAgent(String agentId) throws AgentException {
+		long start = System.nanoTime();
+		try {
+			return Context.get().requestAgent(agentId);
+		} finally {
+			recordOperation("requestAgent", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Stores an agent and records the operation in the service metrics.
+	 *
+	 * @param agent The agent to store.
+	 * @throws AgentException If the agent cannot be stored.
+	 * @since 1.1.2
+	 */
+	private void storeAgent(Agent agent) throws AgentException {
+		long start = System.nanoTime();
+		try {
+			Context.get().storeAgent(agent);
+		} finally {
+			recordOperation("storeAgent", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Invokes a method of another service and records the operation in the
+	 * service metrics.
+	 *
+	 * @param serviceName Name and version of the service.
+	 * @param method      Name of the method.
+	 * @param parameters  Parameters of the method.
+	 * @return The result of the invocation.
+	 * @throws ServiceInvocationException If the invocation failed.
+	 * @since 1.1.2
+	 */
+	private Serializable invoke(String serviceName, String method, Serializable... parameters)
+			throws ServiceInvocationException {
+		long start = System.nanoTime();
+		try {
+			return Context.get().invoke(serviceName, method, parameters);
+		} finally {
+			recordOperation("invoke", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Resolves the identifier of a user agent and records the lookup in the
+	 * service metrics.
+	 *
+	 * @param loginName Login name of the user.
+	 * @return The identifier of the user agent.
+	 * @throws AgentException If no user with this login name exists.
+	 * @since 1.1.2
+	 */
+	private String resolveLoginName(String loginName) throws AgentException {
+		String cached = identities.getId(loginName, identityCacheTtlMs);
+		if (cached != null) {
+			metrics.increment("identity_cache_hits", 1);
+			return cached;
+		}
+		long start = System.nanoTime();
+		try {
+			String id = Context.get().getUserAgentIdentifierByLoginName(loginName);
+			identities.put(id, loginName, identityCacheTtlMs);
+			return id;
+		} finally {
+			recordOperation("resolveLoginName", System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Gets the login name of a user agent, from the identity cache if possible.
+	 *
+	 * @param agentId Identifier of the user agent.
+	 * @return The login name.
+	 * @throws AgentException If the agent does not exist or cannot be fetched.
+	 * @since 1.1.2
+	 */
+	private String getLoginName(String agentId) throws AgentException {
+		String cached = identities.getLoginName(agentId, identityCacheTtlMs);
+		if (cached != null) {
+			metrics.increment("identity_cache_hits", 1);
+			return cached;
+		}
+		String name = ((UserAgent) fetchAgent(agentId)).getLoginName();
+		identities.put(agentId, name, identityCacheTtlMs);
+		return name;
+	}
+
+	/**
+	 * Loads the identity cache snapshot, if one is configured, and schedules
+	 * writing it periodically. A snapshot which cannot be read is ignored, the
+	 * cache is then filled from the network as usual.
+	 *
+	 * @since 1.1.2
+	 */
+	private void loadIdentityCache() {
+		if (identityCacheFile == null || identityCacheFile.isEmpty()) {
+			return;
+		}
+		java.nio.file.Path file = Paths.get(identityCacheFile);
+		try {
+			int loaded = identities.load(file, identityCacheTtlMs);
+			if (loaded < 0) {
+				logger.warning("Discarded invalid identity cache file " + file);
+			} else {
+				logger.info("Loaded " + loaded + " identities from " + file);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Can't read identity cache file " + file, e);
+		}
+		if (identityCacheWriteIntervalMs > 0) {
+			identityCacheWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "contactservice-identity-cache");
+				t.setDaemon(true);
+				return t;
+			});
+			identityCacheWriter.scheduleWithFixedDelay(this::saveIdentityCache, identityCacheWriteIntervalMs,
+					identityCacheWriteIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes the identity cache snapshot if one is configured and the cache
+	 * changed since it was last written.
+	 *
+	 * @since 1.1.2
+	 */
+	private void saveIdentityCache() {
+		if (identityCacheFile == null || identityCacheFile.isEmpty() || !identities.isDirty()) {
+			return;
+		}
+		try {
+			identities.save(Paths.get(identityCacheFile));
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Can't write identity cache file " + identityCacheFile, e);
+		}
+	}
+
+	/**
+	 * Opens the write-behind log if one is configured and queues the mutations it
+	 * still holds. Without the log, or if it cannot be opened, mutations are
+	 * written synchronously.
+	 *
+	 * @since 1.1.2
+	 */
+	private void openWriteBehindLog() {
+		if (writeBehindLogFile == null || writeBehindLogFile.isEmpty()) {
+			return;
+		}
+		WriteBehindLog log = new WriteBehindLog(Paths.get(writeBehindLogFile), metrics, this::applyLogged,
+				writeBehindDelayMs, writeBehindRetryMs, writeBehindMaxRetryMs);
+		try {
+			int replayed = log.open();
+			if (replayed > 0) {
+				logger.info("Replaying " + replayed + " mutations from " + writeBehindLogFile);
+			}
+			writeBehind = log;
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.SEVERE, "Can't open write-behind log " + writeBehindLogFile
+					+ ", mutations are written synchronously", e);
+		}
+	}
+
+	/**
+	 * @return True if mutations of the address book are logged and written in
+	 *         the background.
+	 * @since 1.1.2
+	 */
+	private boolean isWriteBehind() {
+		return writeBehind != null;
+	}
+
+	/**
+	 * Logs a mutation of the address book in write-behind mode.
+	 *
+	 * @param identifier Identifier of the envelope holding the list.
+	 * @param operation  {@link WriteBehindLog#ADD} or {@link WriteBehindLog#REMOVE}.
+	 * @param agentId    Id of the added or removed agent.
+	 * @return True if the mutation was logged, false if it is lost.
+	 * @since 1.1.2
+	 */
+	private boolean logMutation(String identifier, String operation, String agentId) {
+		try {
+			writeBehind.append(identifier, operation, agentId, Context.get().getExecutor());
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Can't log mutation of " + identifier + "!", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Applies the mutations pending in the write-behind log to a user list read
+	 * from an envelope.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param userList   The user list, it is modified.
+	 * @since 1.1.2
+	 */
+	private void applyPending(String identifier, Set<String> userList) {
+		if (writeBehind != null) {
+			writeBehind.applyPending(identifier, userList);
+		}
+	}
+
+	/**
+	 * Returns a user list read from an envelope with the mutations pending in the
+	 * write-behind log applied.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param userList   The user list, it is not modified.
+	 * @return The user list or a modified copy.
+	 * @since 1.1.2
+	 */
+	private Set<String> withPending(String identifier, HashSet<String> userList) {
+		if (writeBehind == null) {
+			return userList;
+		}
+		List<WriteBehindLog.Entry> pending = writeBehind.getPending(identifier);
+		if (pending.isEmpty()) {
+			return userList;
+		}
+		Set<String> copy = new HashSet<>(userList);
+		WriteBehindLog.apply(pending, copy);
+		return copy;
+	}
+
+	/**
+	 * Writes mutations from the write-behind log to the address book with the
+	 * contact storer, creating the envelope if it does not exist yet. Only the
+	 * address book is logged, because replaying a mutation must not depend on an
+	 * agent which is only unlocked during its owner's requests.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param entries    The mutations.
+	 * @throws Exception If the envelope cannot be read or stored.
+	 * @since 1.1.2
+	 */
+	private void applyLogged(String identifier, List<WriteBehindLog.Entry> entries) throws Exception {
+		Agent owner = getContactStorer();
+		Lock lock = envelopeLocks.lock(identifier);
+		try {
+			Envelope env;
+			ContactContainer cc;
+			try {
+				env = requestEnvelope(identifier, owner);
+				cc = readContainer(env);
+			} catch (EnvelopeNotFoundException e) {
+				env = Context.get().createEnvelope(identifier, owner);
+				env.setPublic();
+				cc = new ContactContainer();
+			}
+			WriteBehindLog.apply(entries, cc.getUserList());
+			env.setContent(cc);
+			writeEnvelope(env, owner);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Fetches and unlocks the contact storer agent which owns the address book and
+	 * the group list.
+	 *
+	 * @return The unlocked contact storer.
+	 * @throws AgentException If the contact storer does not exist or cannot be
+	 *                        unlocked.
+	 * @since 1.1.2
+	 */
+	private UserAgent getContactStorer() throws AgentException {
+		UserAgent contactStorer = (UserAgent) fetchAgent(resolveLoginName(contactStorerAgentNameStatic));
+		long start = System.nanoTime();
+		try {
+			contactStorer.unlock(contactStorerAgentPWStatic);
+		} finally {
+			recordOperation("unlock", System.nanoTime() - start);
+		}
+		return contactStorer;
+	}
+
+	/**
+	 * Like {@link #getContactStorer()}, but returns null if the contact storer is
+	 * not available.
+	 *
+	 * @return The unlocked contact storer or null.
+	 * @since 1.1.2
+	 */
+	private UserAgent findContactStorer() {
+		try {
+			return getContactStorer();
+		} catch (AgentException e) {
+			logger.log(Level.WARNING, "Contact storer not available or not unlockable", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The group list is split into shards by the hash of the group name, so adding
+	 * a group touches only one of them.
+	 *
+	 * @param name Name of a group.
+	 * @return Identifier of the group list envelope holding the group.
+	 * @throws Exception If the number of shards cannot be read.
+	 * @since 1.1.2
+	 */
+	private String groupListIdentifier(String name) throws Exception {
+		return groupListShardIdentifier(Math.floorMod(name.hashCode(), groupListShardCount()));
+	}
+
+	private String groupListShardIdentifier(int shard) {
+		return group_prefix + "_" + contactStorerAgentNameStatic + "_" + shard;
+	}
+
+	/**
+	 * The number of shards is stored with the group list when it is first used,
+	 * since groups hashed into a different number of shards could not be found
+	 * any more. Later changes of groupListShards do not apply to an existing
+	 * group list.
+	 *
+	 * @return Number of shards of the group list.
+	 * @throws Exception If the stored number cannot be read or a new one cannot be
+	 *                   stored.
+	 * @since 1.1.2
+	 */
+	private int groupListShardCount() throws Exception {
+		int count = groupListShardCount;
+		if (count > 0) {
+			return count;
+		}
+		String identifier = group_prefix + "_" + contactStorerAgentNameStatic + "_shards";
+		Lock lock = envelopeLocks.lock(identifier);
+		try {
+			if (groupListShardCount > 0) {
+				return groupListShardCount;
+			}
+			UserAgent contactStorer = getContactStorer();
+			try {
+				count = (Integer) requestEnvelope(identifier, contactStorer).getContent();
+			} catch (EnvelopeNotFoundException e) {
+				Envelope env = Context.get().createEnvelope(identifier, contactStorer);
+				env.setPublic();
+				env.setContent(groupListShards);
+				writeEnvelope(env, contactStorer);
+				count = groupListShards;
+			}
+			if (count != groupListShards) {
+				logger.warning("groupListShards is " + groupListShards + " but the group list has " + count
+						+ " shards, keeping " + count);
+			}
+			groupListShardCount = count;
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Identifiers of all group list envelopes, including the unsharded
+	 *         group list as long as it was not migrated.
+	 * @throws Exception If the number of shards cannot be read.
+	 * @since 1.1.2
+	 */
+	private List<String> groupListIdentifiers() throws Exception {
+		int count = groupListShardCount();
+		migrateGroupList();
+		List<String> identifiers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			identifiers.add(groupListShardIdentifier(i));
+		}
+		if (!groupListMigrated) {
+			identifiers.add(contactStorerAgentPWStatic);
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Reads all shards of the group list concurrently. The contact storer is
+	 * unlocked once for all of them.
+	 *
+	 * @return Group names mapped to group agent ids.
+	 * @throws Exception If a shard cannot be read.
+	 * @since 1.1.2
+	 */
+	private Map<String, String> readGroupList() throws Exception {
+		ExecutorService executor = Context.get().getExecutor();
+		UserAgent contactStorer = findContactStorer();
+		List<Future<Map<String, String>>> shards = new ArrayList<>();
+		for (String identifier : groupListIdentifiers()) {
+			shards.add(executor.submit(RequestTrace.wrap(() -> readGroupListShard(identifier, contactStorer))));
+		}
+		Map<String, String> groups = new HashMap<>();
+		for (Future<Map<String, String>> shard : shards) {
+			groups.putAll(shard.get());
+		}
+		return groups;
+	}
+
+	/**
+	 * Reads one shard of the group list, including groups created on this node
+	 * which are not yet stored in it. A missing shard is empty.
+	 *
+	 * @param identifier    Identifier of the group list envelope.
+	 * @param contactStorer The unlocked contact storer, see
+	 *                      {@link #findContactStorer()}.
+	 * @return Group names mapped to group agent ids.
+	 * @throws Exception If the shard cannot be read.
+	 * @since 1.1.2
+	 */
+	private Map<String, String> readGroupListShard(String identifier, UserAgent contactStorer) throws Exception {
+		Map<String, String> groups;
+		try {
+			// concurrent callers share one fetch of the shard
+			groups = new HashMap<>(fetchShared(identifier,
+					() -> readContainer(requestEnvelope(identifier, contactStorer))).getGroups());
+		} catch (EnvelopeNotFoundException e) {
+			groups = new HashMap<>();
+		}
+		groups.putAll(groupList.getPending(identifier));
+		return groups;
+	}
+
+	/**
+	 * Moves the groups of the unsharded group list into the shards. Runs once in
+	 * the background, and again on the next access if it failed. Groups are only
+	 * removed from the unsharded list after they were stored in their shard.
+	 *
+	 * @since 1.1.2
+	 */
+	private void migrateGroupList() {
+		if (groupListMigrated || !groupListMigration.compareAndSet(false, true)) {
+			return;
+		}
+		Context.get().getExecutor().execute(() -> {
+			try {
+				UserAgent contactStorer = getContactStorer();
+				Envelope env;
+				try {
+					env = requestEnvelope(contactStorerAgentPWStatic, contactStorer);
+				} catch (EnvelopeNotFoundException e) {
+					groupListMigrated = true;
+					return;
+				}
+				ContactContainer cc = readContainer(env);
+				Map<String, Map<String, String>> byShard = new HashMap<>();
+				for (Map.Entry<String, String> group : cc.getGroups().entrySet()) {
+					byShard.computeIfAbsent(groupListIdentifier(group.getKey()), k -> new HashMap<>())
+							.put(group.getKey(), group.getValue());
+				}
+				for (Map.Entry<String, Map<String, String>> shard : byShard.entrySet()) {
+					writeGroupList(shard.getKey(), shard.getValue());
+				}
+				if (!byShard.isEmpty()) {
+					for (Map<String, String> shard : byShard.values()) {
+						for (Map.Entry<String, String> group : shard.entrySet()) {
+							cc.getGroups().remove(group.getKey(), group.getValue());
+						}
+					}
+					env.setContent(cc);
+					writeEnvelope(env, contactStorer);
+				}
+				metrics.increment("group_list_migrated", byShard.values().stream().mapToInt(Map::size).sum());
+				groupListMigrated = true;
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Can't migrate group list, retrying on next access", e);
+				groupListMigration.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Adds groups to a group list envelope of the contact storer, creating the
+	 * envelope if it does not exist yet.
+	 *
+	 * @param identifier Identifier of the group list envelope.
+	 * @param groups     Group names mapped to group agent ids.
+	 * @throws Exception If the contact storer is not available or the envelope
+	 *                   cannot be read or stored.
+	 * @since 1.1.2
+	 */
+	private void writeGroupList(String identifier, Map<String, String> groups) throws Exception {
+		UserAgent contactStorer = getContactStorer();
+		Lock lock = envelopeLocks.lock(identifier);
+		try {
+			Envelope env;
+			ContactContainer cc;
+			try {
+				env = requestEnvelope(identifier, contactStorer);
+				cc = readContainer(env);
+			} catch (EnvelopeNotFoundException e) {
+				env = Context.get().createEnvelope(identifier, contactStorer);
+				env.setPublic();
+				cc = new ContactContainer();
+			}
+			for (Map.Entry<String, String> group : groups.entrySet()) {
+				cc.addGroup(group.getKey(), group.getValue());
+			}
+			env.setContent(cc);
+			writeEnvelope(env, contactStorer);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the updater of the group list. If a file for the pending groups is
+	 * configured, the groups a previous run did not write yet are queued again.
+	 * If the file cannot be opened, pending groups are kept in memory only.
+	 *
+	 * @return The updater.
+	 * @since 1.1.2
+	 */
+	private GroupListUpdater openGroupListUpdater() {
+		if (groupListPendingFile != null && !groupListPendingFile.isEmpty()) {
+			GroupListUpdater updater = new GroupListUpdater(metrics, this::writeGroupList, groupListRetryMs,
+					groupListMaxRetryMs, Paths.get(groupListPendingFile));
+			try {
+				int pending = updater.open();
+				if (pending > 0) {
+					logger.info("Adding " + pending + " pending groups from " + groupListPendingFile);
+				}
+				return updater;
+			} catch (IOException | RuntimeException e) {
+				logger.log(Level.SEVERE, "Can't open " + groupListPendingFile
+						+ ", pending groups are kept in memory only", e);
+			}
+		}
+		return new GroupListUpdater(metrics, this::writeGroupList, groupListRetryMs, groupListMaxRetryMs);
+	}
+
+	/**
+	 * Starts writing the mutations replayed from the write-behind log and the
+	 * groups a previous run did not add to the group list. Writing needs the
+	 * context of a request, so this is called for every request by the
+	 * {@link BackgroundWorkFilter}.
+	 *
+	 * @since 1.1.2
+	 */
+	void resumeBackgroundWork() {
+		groupList.resume(Context.get().getExecutor());
+		if (writeBehind != null) {
+			writeBehind.resume(Context.get().getExecutor());
+		}
+	}
+
+	/**
+	 * Fetches a shared, read-only contact container. Concurrent callers asking
+	 * for the same envelope wait for the fetch already in flight instead of
+	 * fetching and decoding the envelope again. If the envelope does not exist,
+	 * all of them get the {@link EnvelopeNotFoundException}. If the shared fetch
+	 * fails otherwise or does not finish within the configured timeout, the
+	 * caller fetches on its own. The returned container must not be modified.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param loader     Fetches and decodes the envelope.
+	 * @return The contact container.
+	 * @throws Exception If the envelope cannot be fetched.
+	 * @since 1.1.2
+	 */
+	private ContactContainer fetchShared(String identifier, SingleFlight.Loader<ContactContainer> loader)
+			throws Exception {
+		return containerFetches.execute(identifier, loader, singleFlightTimeoutMs);
+	}
+
+	/**
+	 * Builds the result of a list endpoint with the selected fields. If only ids
+	 * are selected, no agent is fetched and the ids are returned as array.
+	 * Otherwise the result maps ids to login names, or to objects with name and
+	 * profile if the user information is selected. Objects whose profile could not
+	 * be fetched in time are marked as partial.
+	 *
+	 * @param ids            Ids of the listed agents.
+	 * @param selection      Selected fields.
+	 * @param unknown        Collects ids of agents which do not exist, may be null.
+	 * @param skipUnreadable True to skip agents which cannot be fetched for other
+	 *                       reasons, false to fail.
+	 * @return The result, a {@link JSONArray} or {@link JSONObject}.
+	 * @throws AgentException If an agent cannot be fetched and unreadable agents
+	 *                        are not skipped.
+	 * @since 1.1.2
+	 */
+	private Object projectAgents(Collection<String> ids, FieldSelection selection, Set<String> unknown,
+			boolean skipUnreadable) throws AgentException {
+		if (selection.isIdOnly()) {
+			JSONArray result = new JSONArray();
+			result.addAll(ids);
+			return result;
+		}
+		Map<String, String> names = new LinkedHashMap<>();
+		for (String id : ids) {
+			try {
+				names.put(id, getLoginName(id));
+			} catch (AgentNotFoundException e) {
+				if (unknown != null) {
+					unknown.add(id);
+				}
+			} catch (AgentException | ClassCastException e) {
+				if (!skipUnreadable) {
+					throw e;
+				}
+				logger.log(Level.FINE, "Skipping agent " + id, e);
+			}
+		}
+		JSONObject result = new JSONObject();
+		if (!selection.includesProfile()) {
+			result.putAll(names);
+			return result;
+		}
+		Set<String> timedOut = new HashSet<>();
+		Map<String, Map<?, ?>> profiles = fetchProfiles(names.keySet(), timedOut);
+		for (Map.Entry<String, String> e : names.entrySet()) {
+			JSONObject entry = new JSONObject();
+			if (selection.includesName()) {
+				entry.put("name", e.getValue());
+			}
+			if (timedOut.contains(e.getKey())) {
+				// the profile is missing because it was not fetched in time
+				entry.put("partial", true);
+			}
+			Map<?, ?> profile = profiles.get(e.getKey());
+			if (profile != null) {
+				JSONObject fields = new JSONObject();
+				for (Map.Entry<?, ?> field : profile.entrySet()) {
+					fields.put(String.valueOf(field.getKey()), field.getValue());
+				}
+				entry.put("profile", fields);
+			}
+			result.put(e.getKey(), entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Fetches the user information of agents from the user information service,
+	 * which only returns the fields the agents made visible. Information of other
+	 * agents than the main agent is cached for a short time. Agents whose cached
+	 * permissions show no field are not asked at all. At most the
+	 * configured number of calls run concurrently, calls which do not finish
+	 * within the configured timeout are given up. Agents whose information cannot
+	 * be read are left out.
+	 *
+	 * @param ids      Ids of the agents.
+	 * @param timedOut Collects ids of agents whose information was not fetched in
+	 *                 time.
+	 * @return User information per agent id.
+	 * @since 1.1.2
+	 */
+	private Map<String, Map<?, ?>> fetchProfiles(Collection<String> ids, Set<String> timedOut) {
+		Map<String, Map<?, ?>> profiles = new HashMap<>();
+		String viewer = Context.get().getMainAgent().getIdentifier();
+		Map<String, Future<Serializable>> calls = new LinkedHashMap<>();
+		ExecutorService executor = Context.get().getExecutor();
+		Semaphore window = new Semaphore(Math.max(1, profileConcurrency));
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(profileTimeoutMs);
+		try {
+			for (String id : ids) {
+				Map<String, Boolean> permissions = id.equals(viewer) ? null : permissionCache.get(id);
+				if (permissions != null && !permissions.containsValue(Boolean.TRUE)) {
+					// the agent shows none of its fields
+					metrics.increment("permission_cache_hits", 1);
+					continue;
+				}
+				Map<?, ?> cached = id.equals(viewer) ? null : profileCache.get(id);
+				if (cached != null) {
+					metrics.increment("profile_cache_hits", 1);
+					profiles.put(id, visibleFields(cached, permissions));
+					continue;
+				}
+				if (!window.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					timedOut.add(id);
+					continue;
+				}
+				calls.put(id, executor.submit(RequestTrace.wrap(() -> {
+					try {
+						return invoke(USER_INFORMATION_SERVICE, "get", id, PROFILE_FIELDS);
+					} finally {
+						window.release();
+					}
+				})));
+			}
+			for (Map.Entry<String, Future<Serializable>> call : calls.entrySet()) {
+				String id = call.getKey();
+				try {
+					Serializable profile = call.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (profile instanceof Map) {
+						profiles.put(id, (Map<?, ?>) profile);
+						if (!id.equals(viewer)) {
+							profileCache.put(id, (Map<?, ?>) profile, profileCacheTtlMs);
+						}
+					}
+				} catch (TimeoutException e) {
+					call.getValue().cancel(true);
+					timedOut.add(id);
+				} catch (ExecutionException e) {
+					logger.log(Level.FINE, "Can't get user information of " + id, e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!timedOut.isEmpty()) {
+			metrics.increment("profile_timeouts", timedOut.size());
+		}
+		return profiles;
+	}
+
+	/**
+	 * Gets the permission settings of the main agent, from the cache if possible.
+	 * The cache is invalidated when the permissions are changed through this node
+	 * and expires after a short time for changes through other nodes.
+	 *
+	 * @return Visibility of the profile fields, null if the user information
+	 *         service returned nothing.
+	 * @throws ServiceInvocationException If the user information service cannot
+	 *                                    be invoked.
+	 * @since 1.1.2
+	 */
+	private HashMap<String, Boolean> getPermissions() throws ServiceInvocationException {
+		String agentId = Context.get().getMainAgent().getIdentifier();
+		HashMap<String, Boolean> cached = permissionCache.get(agentId);
+		if (cached != null) {
+			metrics.increment("permission_cache_hits", 1);
+			return cached;
+		}
+		Serializable result = invoke(USER_INFORMATION_SERVICE, "getPermissions",
+				new Serializable[] { PROFILE_FIELDS });
+		if (!(result instanceof HashMap<?, ?>)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		HashMap<String, Boolean> permissions = (HashMap<String, Boolean>) result;
+		permissionCache.put(agentId, permissions, permissionCacheTtlMs);
+		return permissions;
+	}
+
+	/**
+	 * Removes the fields from a profile which are hidden according to the
+	 * permissions of its owner.
+	 *
+	 * @param profile     User information.
+	 * @param permissions Visibility of the fields, null if unknown.
+	 * @return The visible user information.
+	 * @since 1.1.2
+	 */
+	private static Map<?, ?> visibleFields(Map<?, ?> profile, Map<String, Boolean> permissions) {
+		if (permissions == null) {
+			return profile;
+		}
+		Map<Object, Object> visible = new HashMap<>();
+		for (Map.Entry<?, ?> field : profile.entrySet()) {
+			if (!Boolean.FALSE.equals(permissions.get(String.valueOf(field.getKey())))) {
+				visible.put(field.getKey(), field.getValue());
+			}
+		}
+		return visible;
+	}
+
+	/**
+	 * Stores an image in a public envelope named after its hash, unless it is
+	 * stored already. A thumbnail is created first if configured.
+	 *
+	 * @param avatar The image.
+	 * @return The reference to put into the profile instead of the image.
+	 * @throws EnvelopeException If the image cannot be stored.
+	 * @since 1.1.2
+	 */
+	private String storeAvatar(Avatar avatar) throws EnvelopeException {
+		String hash = avatar.getHash();
+		String identifier = avatar_prefix + "_" + hash;
+		if (avatarCache.get(hash) != null) {
+			return avatar.getReference();
+		}
+		try {
+			requestEnvelope(identifier);
+		} catch (EnvelopeNotFoundException e) {
+			if (avatarThumbnailSize > 0) {
+				avatar.createThumbnail(avatarThumbnailSize);
+			}
+			Envelope env = Context.get().createEnvelope(identifier);
+			env.setPublic();
+			env.setContent(avatar);
+			writeEnvelope(env);
+			metrics.increment("avatars_stored", 1);
+		}
+		avatarCache.put(hash, avatar);
+		return avatar.getReference();
+	}
+
+	/**
+	 * Gets an image from the cache or from its envelope.
+	 *
+	 * @param hash Hash of the image.
+	 * @return The image.
+	 * @throws EnvelopeException If the image does not exist or cannot be read.
+	 * @since 1.1.2
+	 */
+	private Avatar loadAvatar(String hash) throws EnvelopeException {
+		Avatar avatar = avatarCache.get(hash);
+		if (avatar != null) {
+			metrics.increment("avatar_cache_hits", 1);
+			return avatar;
+		}
+		Envelope env = requestEnvelope(avatar_prefix + "_" + hash);
+		long start = System.nanoTime();
+		try {
+			avatar = (Avatar) env.getContent();
+		} finally {
+			recordOperation("deserialize", System.nanoTime() - start);
+		}
+		avatarCache.put(hash, avatar);
+		return avatar;
+	}
+
+	/**
+	 * Builds the response serving an image. Answers with 304 if the client has
+	 * the current image. The image is served with the type detected from its
+	 * bytes and browsers are told not to guess another one. Images of other
+	 * types than PNG, JPEG, GIF and WebP are not served.
+	 *
+	 * @param avatar       The image.
+	 * @param hash         Hash of the image, used as strong ETag.
+	 * @param size         <code>thumbnail</code> to serve the thumbnail if there
+	 *                     is one.
+	 * @param ifNoneMatch  Value of the If-None-Match header, may be null.
+	 * @param cacheControl Value of the Cache-Control header.
+	 * @return The response.
+	 * @since 1.1.2
+	 */
+	private Response avatarResponse(Avatar avatar, String hash, String size, String ifNoneMatch,
+			String cacheControl) {
+		boolean thumbnail = "thumbnail".equals(size) && avatar.getThumbnail() != null;
+		String etag = "\"" + hash + (thumbnail ? "-thumbnail" : "") + "\"";
+		if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || Arrays.asList(ifNoneMatch.split(","))
+				.stream().anyMatch(tag -> tag.trim().equals(etag)))) {
+			return Response.notModified().header(HttpHeaders.ETAG, etag)
+					.header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+		}
+		String mediaType = thumbnail ? "image/png" : avatar.getMediaType();
+		if (mediaType == null) {
+			return Response.status(Status.NOT_FOUND).entity("No image.").build();
+		}
+		return Response.ok(thumbnail ? avatar.getThumbnail() : avatar.getData()).type(mediaType)
+				.header(HttpHeaders.ETAG, etag).header(HttpHeaders.CACHE_CONTROL, cacheControl)
+				.header("X-Content-Type-Options", "nosniff").build();
+	}
+
+	/**
+	 * Reads the contact list of an agent into the contact graph. A missing contact
+	 * list is indexed as empty.
+	 *
+	 * @param owner Agent whose contacts are loaded.
+	 * @throws EnvelopeException If the contact list cannot be read.
+	 * @since 1.1.2
+	 */
+	private void loadContactList(Agent owner) throws EnvelopeException {
+		ContactContainer cc;
+		try {
+			cc = readContainer(requestEnvelope(contact_prefix + "_" + owner.getIdentifier(), owner));
+		} catch (EnvelopeNotFoundException e) {
+			cc = new ContactContainer();
+		}
+		contactGraph.setContacts(owner.getIdentifier(), cc.getUserList());
+	}
+
+	/**
+	 * Records a change in the change journal and notifies the event subscribers
+	 * allowed to see it.
+	 *
+	 * @param type      Type of the change, see {@link ChangeJournal}.
+	 * @param operation Added or removed.
+	 * @param agentId   Id of the added or removed agent.
+	 * @param group     Name of the group or null.
+	 * @param audience  Agents allowed to see the change, null for everybody.
+	 * @since 1.1.2
+	 */
+	private void recordChange(String type, String operation, String agentId, String group,
+			Collection<String> audience) {
+		ChangeJournal.Change change = changes.append(type, operation, agentId, group, audience);
+		events.publish(change, change.toJSON(changes.getEpoch()).toJSONString());
+	}
+
+	/**
+	 * Computes the contact suggestions of an agent or returns them from the cache.
+	 * Candidates are the contacts of the agent's contacts and the members of the
+	 * agent's groups, both taken from the contact graph. The number of contact
+	 * lists and groups looked at is capped by the configured fan-out.
+	 *
+	 * @param owner Agent to compute suggestions for.
+	 * @return The best suggestions, best first.
+	 * @throws EnvelopeException If the agent's contact list cannot be read.
+	 * @since 1.1.2
+	 */
+	private List<ContactSuggestions.Suggestion> getSuggestions(Agent owner) throws EnvelopeException {
+		String ownerId = owner.getIdentifier();
+		List<ContactSuggestions.Suggestion> cached = suggestions.get(ownerId);
+		if (cached != null) {
+			metrics.increment("suggestion_cache_hits", 1);
+			return cached;
+		}
+		if (!contactGraph.isKnown(ownerId)) {
+			loadContactList(owner);
+		}
+		Map<String, Integer> mutual = contactGraph.countContactsOfContacts(ownerId, suggestionFanOut,
+				suggestionFanOut * 20);
+		Map<String, Integer> shared = countGroupMembers(ownerId);
+		Set<String> exclude = new HashSet<>();
+		exclude.add(ownerId);
+		List<String> direct = contactGraph.getContacts(ownerId);
+		if (direct != null) {
+			exclude.addAll(direct);
+		}
+		List<ContactSuggestions.Suggestion> ranked = ContactSuggestions.rank(mutual, shared, exclude,
+				MAX_SUGGESTIONS);
+		suggestions.put(ownerId, ranked, suggestionCacheTtlMs);
+		return ranked;
+	}
+
+	/**
+	 * Counts in how many of the main agent's groups each other agent is a member.
+	 * The groups of the main agent are taken from the contact graph, which knows
+	 * them once the agent listed its groups or created or joined one on this
+	 * node. At most the configured fan-out of group agents is fetched.
+	 *
+	 * @param ownerId Id of the main agent.
+	 * @return Number of shared groups per agent, empty if the agent's groups are
+	 *         unknown.
+	 * @since 1.1.2
+	 */
+	private Map<String, Integer> countGroupMembers(String ownerId) {
+		Map<String, Integer> counts = new HashMap<>();
+		List<String> groupIds = contactGraph.getGroups(ownerId);
+		if (groupIds == null) {
+			return counts;
+		}
+		int looked = 0;
+		for (String groupId : groupIds) {
+			if (looked++ >= suggestionFanOut) {
+				break;
+			}
+			try {
+				GroupAgent group = (GroupAgent) requestAgent(groupId);
+				for (String member : group.getMemberList()) {
+					if (!member.equals(ownerId)) {
+						counts.merge(member, 1, Integer::sum);
+					}
+				}
+			} catch (AgentException | ClassCastException e) {
+				// left the group or cannot be read now
+				logger.log(Level.FINE, "Can't read group " + groupId, e);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Schedules the removal of agent ids, which could not be resolved while
+	 * reading a contact container, from the container's envelope. The removal runs
+	 * in the background and is rate-limited, see {@link DeadAgentPruner}.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param unknown    Ids which could not be resolved.
+	 * @param owner      Agent who owns the envelope or null for the contact
+	 *                   storer.
+	 * @since 1.1.2
+	 */
+	private void pruneLater(String identifier, Set<String> unknown, Agent owner) {
+		if (unknown.isEmpty()) {
+			return;
+		}
+		pruner.submit(identifier, unknown, Context.get().getExecutor(),
+				(envelopeId, candidates) -> pruneContainer(envelopeId, candidates, owner), pruneIntervalMs,
+				pruneBatchSize);
+	}
+
+	/**
+	 * Removes agent ids which still cannot be resolved from a contact container.
+	 * Every candidate is looked up again. An id is only removed if it was not
+	 * found in an earlier pass as well, at least the pruning interval ago. Ids
+	 * failing for other reasons than not being found are kept.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @param candidates Ids to check.
+	 * @param owner      Agent who owns the envelope or null for the contact
+	 *                   storer.
+	 * @return Number of removed entries.
+	 * @throws Exception If the envelope could not be read or written.
+	 * @since 1.1.2
+	 */
+	private int pruneContainer(String identifier, Set<String> candidates, Agent owner) throws Exception {
+		Set<String> dead = new HashSet<>();
+		for (String candidate : candidates) {
+			try {
+				lookupAgent(candidate);
+				unknownAgents.remove(candidate);
+				pruner.found(candidate);
+			} catch (AgentNotFoundException e) {
+				if (pruner.confirmDead(candidate, pruneIntervalMs)) {
+					dead.add(candidate);
+					identities.remove(candidate);
+				}
+			} catch (AgentException e) {
+				// keep the entry, the agent may be temporarily unavailable
+			}
+		}
+		if (dead.isEmpty()) {
+			return 0;
+		}
+		Agent using = owner != null ? owner : getContactStorer();
+		Lock lock = envelopeLocks.lock(identifier);
+		try {
+			Envelope env = requestEnvelope(identifier, using);
+			ContactContainer cc = readContainer(env);
+			List<String> removed = new ArrayList<>();
+			for (String id : dead) {
+				if (cc.removeContact(id)) {
+					removed.add(id);
+				}
+			}
+			if (removed.isEmpty()) {
+				return 0;
+			}
+			env.setContent(cc);
+			writeEnvelope(env, using);
+			if (owner != null) {
+				contactGraph.setContacts(owner.getIdentifier(), cc.getUserList());
+				suggestions.invalidate(owner.getIdentifier());
+			}
+			for (String id : removed) {
+				if (owner != null) {
+					recordChange(ChangeJournal.CONTACT, ChangeJournal.REMOVE, id, null,
+							Collections.singleton(owner.getIdentifier()));
+				} else {
+					recordChange(ChangeJournal.ADDRESS_BOOK, ChangeJournal.REMOVE, id, null, null);
+				}
+			}
+			return removed.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the contact container of an envelope and records the time spent on
+	 * deserialization.
+	 *
+	 * @param env Envelope holding a {@link ContactContainer}.
+	 * @return The content of the envelope.
+	 * @since 1.1.2
+	 */
+	private ContactContainer readContainer(Envelope env) {
+		long start = System.nanoTime();
+		ContactContainer cc;
+		try {
+			cc = (ContactContainer) env.getContent();
+		} finally {
+			recordOperation("deserialize", System.nanoTime() - start);
+		}
+		long decompressNanos = cc == null ? 0 : cc.takeDecompressNanos();
+		if (decompressNanos > 0) {
+			recordOperation("decompressContainer", decompressNanos);
+		}
+		return cc;
+	}
+
+	private void recordOperation(String operation, long nanos) {
+		metrics.recordOperation(operation, nanos);
+		RequestTrace.record(operation, nanos);
+	}
+
+	/**
+	 * Writes a request that exceeded the slow-request threshold to the log.
+	 *
+	 * @param endpoint   Name of the resource method.
+	 * @param status     HTTP status of the response.
+	 * @param busyNanos Duration of the request in nanoseconds, without the time it
+	 *                  waited on purpose.
+	 * @param timing    Per-phase breakdown in Server-Timing syntax.
+	 */
+	void logSlowRequest(String endpoint, int status, long busyNanos, String timing) {
+		logger.warning("Slow request " + endpoint + " (" + status + ") took " + busyNanos / 1_000_000
+				+ " ms without idle time: " + timing);
+		slowRequests.add(endpoint, status, busyNanos, timing);
+	}
+
+	/**
+	 * Registers the settings which can be changed while the service runs. Settings which size the shards, lock
+	 * stripes, the change journal, the event hub or the write-behind log are only read at startup.
+	 *
+	 * @since 1.1.2
+	 */
+	private void registerSettings() {
+		long day = TimeUnit.DAYS.toMillis(1);
+		long maxEntries = 10000000;
+		settings.addFlag("serverTimingEnabled", () -> serverTimingEnabled, v -> serverTimingEnabled = v);
+		settings.addFlag("rateLimitEnabled", () -> rateLimitEnabled, v -> rateLimitEnabled = v);
+		settings.addFlag("hedgingEnabled", () -> hedgingEnabled, v -> hedgingEnabled = v);
+		settings.addFlag("compressionEnabled", () -> compressionEnabled, v -> compressionEnabled = v);
+		settings.add("slowRequestThresholdMs", 0, day, () -> slowRequestThresholdMs,
+				v -> slowRequestThresholdMs = v);
+		settings.add("singleFlightTimeoutMs", 1, day, () -> singleFlightTimeoutMs, v -> singleFlightTimeoutMs = v);
+		settings.add("negativeCacheTtlMs", 0, day, () -> negativeCacheTtlMs, v -> negativeCacheTtlMs = v);
+		settings.add("negativeCacheSize", 1, maxEntries, () -> negativeCacheSize, v -> {
+			negativeCacheSize = (int) v;
+			unknownAgents.setMaxSize(negativeCacheSize);
+		});
+		settings.add("pruneIntervalMs", 0, day, () -> pruneIntervalMs, v -> pruneIntervalMs = v);
+		settings.add("pruneBatchSize", 1, 10000, () -> pruneBatchSize, v -> pruneBatchSize = (int) v);
+		settings.add("suggestionCacheTtlMs", 0, day, () -> suggestionCacheTtlMs, v -> suggestionCacheTtlMs = v);
+		settings.add("suggestionCacheSize", 1, maxEntries, () -> suggestionCacheSize, v -> {
+			suggestionCacheSize = (int) v;
+			suggestions.setMaxEntries(suggestionCacheSize);
+		});
+		settings.add("suggestionFanOut", 1, 1000, () -> suggestionFanOut, v -> suggestionFanOut = (int) v);
+		settings.add("eventMaxWaitMs", 0, TimeUnit.MINUTES.toMillis(5), () -> eventMaxWaitMs,
+				v -> eventMaxWaitMs = v);
+		settings.add("agentTokensPerSecond", 1, 1000000, () -> agentTokensPerSecond,
+				v -> agentTokensPerSecond = (int) v);
+		// smaller buckets would never admit the most expensive methods
+		settings.add("agentTokenBurst", MAX_RATE_COST, 1000000, () -> agentTokenBurst,
+				v -> agentTokenBurst = (int) v);
+		settings.add("globalTokensPerSecond", 1, 10000000, () -> globalTokensPerSecond,
+				v -> globalTokensPerSecond = (int) v);
+		settings.add("globalTokenBurst", MAX_RATE_COST, 10000000, () -> globalTokenBurst,
+				v -> globalTokenBurst = (int) v);
+		settings.add("hedgeBudgetPercent", 0, 100, () -> hedgeBudgetPercent, v -> hedgeBudgetPercent = (int) v);
+		settings.add("hedgeMinDelayMs", 0, TimeUnit.MINUTES.toMillis(1), () -> hedgeMinDelayMs,
+				v -> hedgeMinDelayMs = v);
+		settings.add("envelopeReadTimeoutMs", 1, TimeUnit.MINUTES.toMillis(10), () -> envelopeReadTimeoutMs,
+				v -> envelopeReadTimeoutMs = v);
+		settings.add("agentReadTimeoutMs", 1, TimeUnit.MINUTES.toMillis(10), () -> agentReadTimeoutMs,
+				v -> agentReadTimeoutMs = v);
+		settings.add("identityCacheSize", 1, maxEntries, () -> identityCacheSize, v -> {
+			identityCacheSize = (int) v;
+			identities.setMaxSize(identityCacheSize);
+		});
+		settings.add("identityCacheTtlMs", 0, 365 * day, () -> identityCacheTtlMs, v -> identityCacheTtlMs = v);
+		settings.add("compressionThresholdBytes", 0, Integer.MAX_VALUE, () -> compressionThresholdBytes,
+				v -> compressionThresholdBytes = (int) v);
+		settings.add("containerCompressionThresholdBytes", 0, Integer.MAX_VALUE,
+				() -> containerCompressionThresholdBytes, v -> containerCompressionThresholdBytes = (int) v);
+		settings.add("profileConcurrency", 1, 1024, () -> profileConcurrency, v -> profileConcurrency = (int) v);
+		settings.add("profileTimeoutMs", 1, TimeUnit.MINUTES.toMillis(10), () -> profileTimeoutMs,
+				v -> profileTimeoutMs = v);
+		settings.add("profileCacheTtlMs", 0, day, () -> profileCacheTtlMs, v -> profileCacheTtlMs = v);
+		settings.add("profileCacheSize", 1, maxEntries, () -> profileCacheSize, v -> {
+			profileCacheSize = (int) v;
+			profileCache.setMaxSize(profileCacheSize);
+		});
+		settings.add("permissionCacheTtlMs", 0, day, () -> permissionCacheTtlMs, v -> permissionCacheTtlMs = v);
+		settings.add("permissionCacheSize", 1, maxEntries, () -> permissionCacheSize, v -> {
+			permissionCacheSize = (int) v;
+			permissionCache.setMaxSize(permissionCacheSize);
+		});
+		settings.add("avatarMaxBytes", 1, Integer.MAX_VALUE, () -> avatarMaxBytes, v -> avatarMaxBytes = (int) v);
+		settings.add("avatarCacheBytes", 0, Long.MAX_VALUE, () -> avatarCacheBytes, v -> {
+			avatarCacheBytes = v;
+			avatarCache.setMaxBytes(avatarCacheBytes);
+		});
+		settings.add("avatarThumbnailSize", 0, 4096, () -> avatarThumbnailSize, v -> avatarThumbnailSize = (int) v);
+		settings.add("avatarMaxAgeSeconds", 0, TimeUnit.DAYS.toSeconds(365), () -> avatarMaxAgeSeconds,
+				v -> avatarMaxAgeSeconds = (int) v);
+	}
+
+	/**
+	 * @return True if the main agent is listed in the <code>adminAgents</code> setting.
+	 * @since 1.1.2
+	 */
+	boolean isAdmin() {
+		Agent agent = Context.get().getMainAgent();
+		if (!(agent instanceof UserAgent) || adminAgents == null) {
+			return false;
+		}
+		String loginName = ((UserAgent) agent).getLoginName();
+		for (String admin : adminAgents.split(",")) {
+			if (!admin.trim().isEmpty() && admin.trim().equals(loginName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean isRateLimitEnabled() {
+		return rateLimitEnabled;
+	}
+
+	boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * @return The highest {@link RateCost} of the resource methods.
+	 * @since 1.1.2
+	 */
+	private static int maxRateCost() {
+		int max = 1;
+		for (Class<?> resource : ContactService.class.getDeclaredClasses()) {
+			for (Method method : resource.getDeclaredMethods()) {
+				RateCost cost = method.getAnnotation(RateCost.class);
+				if (cost != null) {
+					max = Math.max(max, cost.value());
+				}
+			}
+		}
+		return max;
+	}
+
+	int getCompressionThresholdBytes() {
+		return compressionThresholdBytes;
+	}
+
+	/**
+	 * Takes rate limit tokens for a request of an agent.
+	 *
+	 * @param agentId Id of the requesting agent.
+	 * @param cost    Number of tokens.
+	 * @return 0 if the request is admitted, otherwise the nanoseconds to wait.
+	 * @since 1.1.2
+	 */
+	long acquireTokens(String agentId, int cost) {
+		return rateLimiter.acquire(agentId, cost, agentTokensPerSecond, agentTokenBurst, globalTokensPerSecond,
+				globalTokenBurst);
+	}
+
+	boolean isServerTimingEnabled() {
+		return serverTimingEnabled;
+	}
+
+	long getSlowRequestThresholdMs() {
+		return slowRequestThresholdMs;
+	}
+
+	/**
+	 * @return The node-local metrics of this service.
+	 * @since 1.1.2
+	 */
+	ServiceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The settings of this node which can be changed at runtime.
+	 * @since 1.1.2
+	 */
+	RuntimeSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return The locks serializing mutations of the same envelope.
+	 * @since 1.1.2
+	 */
+	EnvelopeLocks getEnvelopeLocks() {
+		return envelopeLocks;
 	}
 }
@@ -0,0 +1,170 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranks contact suggestions and caches the ranking per user. Suggestions are agents which are not yet contacts of the
+ * user, scored by the number of mutual contacts plus the number of groups shared with the user.
+ */
+public class ContactSuggestions {
+
+	/**
+	 * A suggested agent and why it was suggested.
+	 */
+	public static class Suggestion {
+		private final String agentId;
+		private final int mutualContacts;
+		private final int sharedGroups;
+
+		public Suggestion(String agentId, int mutualContacts, int sharedGroups) {
+			this.agentId = agentId;
+			this.mutualContacts = mutualContacts;
+			this.sharedGroups = sharedGroups;
+		}
+
+		public String getAgentId() {
+			return agentId;
+		}
+
+		public int getMutualContacts() {
+			return mutualContacts;
+		}
+
+		public int getSharedGroups() {
+			return sharedGroups;
+		}
+
+		public int getScore() {
+			return mutualContacts + sharedGroups;
+		}
+	}
+
+	// best first, ties broken by id to keep the order stable
+	private static final Comparator<Suggestion> RANKING = Comparator.comparingInt(Suggestion::getScore).reversed()
+			.thenComparing(Suggestion::getAgentId);
+
+	private static class Entry {
+		final List<Suggestion> suggestions;
+		final long expiry;
+
+		Entry(List<Suggestion> suggestions, long expiry) {
+			this.suggestions = suggestions;
+			this.expiry = expiry;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+	private volatile int maxEntries;
+
+	/**
+	 * @param maxEntries Maximum number of users whose suggestions are cached.
+	 */
+	public ContactSuggestions(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Selects the best suggestions.
+	 *
+	 * @param mutualContacts Number of mutual contacts per candidate.
+	 * @param sharedGroups Number of shared groups per candidate.
+	 * @param exclude Agents which must not be suggested, e.g. the user and its contacts.
+	 * @param limit Maximum number of suggestions.
+	 * @return The best suggestions, best first.
+	 */
+	public static List<Suggestion> rank(Map<String, Integer> mutualContacts, Map<String, Integer> sharedGroups,
+			Set<String> exclude, int limit) {
+		if (limit <= 0) {
+			return new ArrayList<>();
+		}
+		Set<String> candidates = new HashSet<>(mutualContacts.keySet());
+		candidates.addAll(sharedGroups.keySet());
+		candidates.removeAll(exclude);
+		// min-heap holding the best suggestions seen so far, the worst of them on top
+		PriorityQueue<Suggestion> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+		for (String candidate : candidates) {
+			best.add(new Suggestion(candidate, mutualContacts.getOrDefault(candidate, 0),
+					sharedGroups.getOrDefault(candidate, 0)));
+			if (best.size() > limit) {
+				best.poll();
+			}
+		}
+		List<Suggestion> result = new ArrayList<>(best);
+		Collections.sort(result, RANKING);
+		return result;
+	}
+
+	/**
+	 * @param owner Id of the user.
+	 * @return The cached suggestions of the user or null if there are none or they expired.
+	 */
+	public List<Suggestion> get(String owner) {
+		Entry entry = cache.get(owner);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiry <= System.currentTimeMillis()) {
+			cache.remove(owner, entry);
+			return null;
+		}
+		return entry.suggestions;
+	}
+
+	/**
+	 * Caches the suggestions of a user.
+	 *
+	 * @param owner Id of the user.
+	 * @param suggestions The suggestions, best first.
+	 * @param ttlMs How long the suggestions may be used. Nothing is cached if not positive.
+	 */
+	public void put(String owner, List<Suggestion> suggestions, long ttlMs) {
+		if (ttlMs <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (cache.size() >= maxEntries) {
+			cache.values().removeIf(entry -> entry.expiry <= now);
+			if (cache.size() >= maxEntries) {
+				return;
+			}
+		}
+		cache.put(owner, new Entry(Collections.unmodifiableList(suggestions), now + ttlMs));
+	}
+
+	/**
+	 * Drops the cached suggestions of a user, e.g. because the user's contacts changed.
+	 *
+	 * @param owner Id of the user.
+	 */
+	public void invalidate(String owner) {
+		cache.remove(owner);
+	}
+
+	/**
+	 * Changes the maximum number of users whose suggestions are cached. If more are cached, expired rankings and then
+	 * arbitrary ones are dropped.
+	 *
+	 * @param maxEntries Maximum number of users whose suggestions are cached.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		if (cache.size() > maxEntries) {
+			long now = System.currentTimeMillis();
+			cache.values().removeIf(entry -> entry.expiry <= now);
+			Iterator<String> it = cache.keySet().iterator();
+			while (cache.size() > maxEntries && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+}
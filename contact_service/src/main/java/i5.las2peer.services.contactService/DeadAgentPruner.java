@@ -0,0 +1,166 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import i5.las2peer.logging.L2pLogger;
+
+/**
+ * Removes agent ids that can no longer be resolved from contact containers. Reads report the ids they had to skip,
+ * the pruner then schedules a background pass that verifies the ids again and removes the dead ones from the
+ * envelope. An id counts as dead only if it was not found in two passes at least one interval apart, see
+ * {@link #confirmDead(String, long)}, so a lookup failing during a storage hiccup does not delete a contact.
+ *
+ * Pruning is rate-limited: only one pass runs at a time on a node, every envelope is pruned at most once per
+ * interval and a pass handles at most one batch of ids. Ids left over are reported again by the next read. The
+ * pruner tracks at most {@link #MAX_TRACKED} envelopes and suspected ids, entries older than the interval are
+ * dropped first.
+ */
+public class DeadAgentPruner {
+
+	/**
+	 * Performs a pruning pass on one envelope.
+	 */
+	@FunctionalInterface
+	public interface Pass {
+		/**
+		 * @param envelopeId Identifier of the envelope to prune.
+		 * @param candidates Ids which could not be resolved when the envelope was read.
+		 * @return Number of entries removed from the envelope.
+		 * @throws Exception If the envelope could not be pruned.
+		 */
+		int prune(String envelopeId, Set<String> candidates) throws Exception;
+	}
+
+	/**
+	 * Maximum number of envelopes and of suspected ids tracked.
+	 */
+	public static final int MAX_TRACKED = 10000;
+
+	private static final L2pLogger logger = L2pLogger.getInstance(DeadAgentPruner.class.getName());
+
+	private final ServiceMetrics metrics;
+	private final ConcurrentHashMap<String, Long> lastPass = new ConcurrentHashMap<>();
+	// ids not found in a pass, mapped to the time of the first such pass
+	private final ConcurrentHashMap<String, Long> suspectSince = new ConcurrentHashMap<>();
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	/**
+	 * @param metrics Metrics to count pruning passes and removed entries in.
+	 */
+	public DeadAgentPruner(ServiceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Schedules a pruning pass for an envelope if the rate limit allows it.
+	 *
+	 * @param envelopeId Identifier of the envelope.
+	 * @param candidates Ids that could not be resolved.
+	 * @param executor Executor the pass runs on. It has to provide the context the pass needs to access the storage.
+	 * @param pass Performs the pass.
+	 * @param intervalMs Minimal time between two passes on the same envelope.
+	 * @param batchSize Maximum number of ids handled in one pass.
+	 * @return True if a pass was scheduled.
+	 */
+	public boolean submit(String envelopeId, Set<String> candidates, Executor executor, Pass pass, long intervalMs,
+			int batchSize) {
+		if (candidates.isEmpty() || batchSize <= 0) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		Long last = lastPass.get(envelopeId);
+		if (last != null && now - last < intervalMs) {
+			return false;
+		}
+		if (lastPass.size() >= MAX_TRACKED && !evictOlderThan(lastPass, now - intervalMs)) {
+			return false;
+		}
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		lastPass.put(envelopeId, now);
+		Set<String> batch = new LinkedHashSet<>();
+		Iterator<String> it = candidates.iterator();
+		while (it.hasNext() && batch.size() < batchSize) {
+			batch.add(it.next());
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					int removed = pass.prune(envelopeId, batch);
+					metrics.increment("prune_passes", 1);
+					metrics.increment("pruned_entries", removed);
+					if (removed > 0) {
+						logger.info("Removed " + removed + " unknown agents from " + envelopeId);
+					}
+				} catch (Exception e) {
+					metrics.increment("prune_failures", 1);
+					logger.log(Level.WARNING, "Could not prune " + envelopeId, e);
+				} finally {
+					running.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			running.set(false);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reports an id that was not found in a pass. The first report makes the id a suspect. Only a later report, at
+	 * least one interval after the first, confirms that the agent is gone.
+	 *
+	 * @param agentId Id that was not found.
+	 * @param intervalMs Minimal time between the two reports.
+	 * @return True if the id may be removed.
+	 */
+	public boolean confirmDead(String agentId, long intervalMs) {
+		long now = System.currentTimeMillis();
+		Long since = suspectSince.get(agentId);
+		if (since == null) {
+			if (suspectSince.size() < MAX_TRACKED || evictOlderThan(suspectSince, now - intervalMs)) {
+				suspectSince.putIfAbsent(agentId, now);
+			}
+			return false;
+		}
+		if (now - since < intervalMs) {
+			return false;
+		}
+		suspectSince.remove(agentId);
+		return true;
+	}
+
+	/**
+	 * Reports an id that was found again, it is no longer suspected.
+	 *
+	 * @param agentId Id of the agent.
+	 */
+	public void found(String agentId) {
+		suspectSince.remove(agentId);
+	}
+
+	/**
+	 * @return Number of ids not found once and not confirmed yet.
+	 */
+	public int getSuspects() {
+		return suspectSince.size();
+	}
+
+	/**
+	 * Removes the entries older than the given time.
+	 *
+	 * @return True if there is room for a new entry afterwards.
+	 */
+	private static boolean evictOlderThan(ConcurrentHashMap<String, Long> times, long oldest) {
+		times.values().removeIf(time -> time < oldest);
+		return times.size() < MAX_TRACKED;
+	}
+}
@@ -0,0 +1,495 @@
+package i5.las2peer.services.contactService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import i5.las2peer.logging.L2pLogger;
+
+/**
+ * Queue of items per envelope which are handled in the background, used by the group list updater and the write-behind
+ * log. Items queued for an envelope while a pass on it is running are handled together in the next pass. Failed passes
+ * are retried with exponential backoff until they succeed, the items stay queued in the meantime.
+ *
+ * If a file is given, every item is appended to it and the file is forced to disk before the item is queued, and
+ * {@link #open()} queues the items a stopped or crashed node did not handle yet. Every line carries a checksum, so a
+ * line torn by a crash is dropped. Handled items are removed by rewriting the file through a temporary file once the
+ * queue is empty or enough items were handled since the last rewrite.
+ *
+ * @param <E> Type of the items.
+ */
+public class DurableQueue<E> {
+
+	/**
+	 * Converts items to lines of the file.
+	 *
+	 * @param <E> Type of the items.
+	 */
+	public interface Format<E> {
+		/**
+		 * @param item An item.
+		 * @return Identifier of the envelope the item belongs to.
+		 */
+		String key(E item);
+
+		/**
+		 * @param item An item.
+		 * @return The item as text without line breaks.
+		 */
+		String encode(E item);
+
+		/**
+		 * @param data Text written by {@link #encode(Object)}.
+		 * @return The item or null if the text is no valid item.
+		 */
+		E decode(String data);
+	}
+
+	/**
+	 * Handles the items of an envelope.
+	 *
+	 * @param <E> Type of the items.
+	 */
+	@FunctionalInterface
+	public interface Handler<E> {
+		/**
+		 * @param key Identifier of the envelope.
+		 * @param items The items in the order they were queued.
+		 * @throws Exception If the items could not be handled, they are retried later.
+		 */
+		void handle(String key, List<E> items) throws Exception;
+	}
+
+	private static final L2pLogger logger = L2pLogger.getInstance(DurableQueue.class.getName());
+
+	private static final int COMPACTION_THRESHOLD = 1000;
+
+	private static class Batch<E> {
+		final List<E> items = new ArrayList<>();
+		boolean scheduled;
+		int failures;
+	}
+
+	private final ConcurrentHashMap<String, Batch<E>> batches = new ConcurrentHashMap<>();
+	private final String name;
+	private final Path file;
+	private final Format<E> format;
+	private final Handler<E> handler;
+	private final ServiceMetrics metrics;
+	private final long delayMs;
+	private final long retryMs;
+	private final long maxRetryMs;
+	private final Object fileLock = new Object();
+	private final AtomicBoolean resumed = new AtomicBoolean();
+	private FileChannel channel;
+	private int handledSinceCompaction;
+	private volatile ScheduledExecutorService timer;
+
+	/**
+	 * @param name Prefix of the counters, e.g. "group_list". Passes are counted as &lt;name&gt;_writes, failed passes
+	 *            as &lt;name&gt;_retries.
+	 * @param file File to keep the items in, null to keep them in memory only.
+	 * @param format Converts items to lines of the file.
+	 * @param handler Handles the items.
+	 * @param metrics Metrics to count passes and retries in.
+	 * @param delayMs Time to collect items of an envelope before they are handled.
+	 * @param retryMs Delay before the first retry of a failed pass.
+	 * @param maxRetryMs Maximum delay between retries.
+	 */
+	public DurableQueue(String name, Path file, Format<E> format, Handler<E> handler, ServiceMetrics metrics,
+			long delayMs, long retryMs, long maxRetryMs) {
+		this.name = name;
+		this.file = file;
+		this.format = format;
+		this.handler = handler;
+		this.metrics = metrics;
+		this.delayMs = Math.max(0, delayMs);
+		this.retryMs = Math.max(1, retryMs);
+		this.maxRetryMs = Math.max(this.retryMs, maxRetryMs);
+	}
+
+	/**
+	 * Opens the file and queues the items it holds. They are handled once {@link #resume(Executor)} is called.
+	 *
+	 * @return Number of queued items.
+	 * @throws IOException If the file cannot be read or written.
+	 */
+	public int open() throws IOException {
+		if (file == null) {
+			return 0;
+		}
+		synchronized (fileLock) {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			int loaded = 0;
+			int dropped = 0;
+			if (Files.exists(file)) {
+				String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+				for (String line : content.split("\n")) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					E item = decodeLine(line);
+					if (item == null) {
+						dropped++;
+						continue;
+					}
+					Batch<E> batch = batches.computeIfAbsent(format.key(item), k -> new Batch<>());
+					synchronized (batch) {
+						batch.items.add(item);
+					}
+					loaded++;
+				}
+			}
+			if (dropped > 0) {
+				logger.warning("Dropped " + dropped + " damaged entries of " + file);
+			}
+			// drops damaged lines, so appends never continue a torn line
+			compact();
+			return loaded;
+		}
+	}
+
+	/**
+	 * Starts handling the items queued by {@link #open()}. Only the first call has an effect.
+	 *
+	 * @param executor Executor providing the context the handler needs.
+	 */
+	public void resume(Executor executor) {
+		if (!resumed.compareAndSet(false, true)) {
+			return;
+		}
+		for (Map.Entry<String, Batch<E>> e : batches.entrySet()) {
+			schedule(e.getKey(), e.getValue(), executor, 0);
+		}
+	}
+
+	/**
+	 * Writes an item to the file and queues it.
+	 *
+	 * @param item The item.
+	 * @param executor Executor providing the context the handler needs.
+	 * @throws IOException If the item could not be written to the file, it is not queued then.
+	 */
+	public void add(E item, Executor executor) throws IOException {
+		String key = format.key(item);
+		Batch<E> batch;
+		synchronized (fileLock) {
+			append(item);
+			batch = enqueue(key, item);
+		}
+		schedule(key, batch, executor, delayMs);
+	}
+
+	/**
+	 * Queues an item and tries to write it to the file. If that fails, the item is kept in memory and written to the
+	 * file by the next rewrite.
+	 *
+	 * @param item The item.
+	 * @param executor Executor providing the context the handler needs.
+	 * @return False if the item could not be written to the file.
+	 */
+	public boolean offer(E item, Executor executor) {
+		String key = format.key(item);
+		Batch<E> batch;
+		IOException failure = null;
+		synchronized (fileLock) {
+			try {
+				append(item);
+			} catch (IOException e) {
+				failure = e;
+			}
+			batch = enqueue(key, item);
+		}
+		schedule(key, batch, executor, delayMs);
+		if (failure != null) {
+			metrics.increment(name + "_save_failures", 1);
+			logger.log(Level.SEVERE, "Can't save to " + file, failure);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param key Identifier of the envelope.
+	 * @return Items of the envelope not yet handled, in the order they were queued.
+	 */
+	public List<E> getPending(String key) {
+		Batch<E> batch = batches.get(key);
+		if (batch == null) {
+			return Collections.emptyList();
+		}
+		synchronized (batch) {
+			return new ArrayList<>(batch.items);
+		}
+	}
+
+	/**
+	 * @return Number of items not yet handled.
+	 */
+	public int size() {
+		int size = 0;
+		for (Batch<E> batch : batches.values()) {
+			synchronized (batch) {
+				size += batch.items.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Stops handling items and closes the file. Pending items are queued again by the next {@link #open()}.
+	 *
+	 * @return Number of items not yet handled.
+	 */
+	public int close() {
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+		synchronized (fileLock) {
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Can't close " + file, e);
+			}
+			channel = null;
+		}
+		return size();
+	}
+
+	/**
+	 * Appends an item to the file and forces it to disk. Must be called holding the file lock.
+	 */
+	private void append(E item) throws IOException {
+		if (file == null) {
+			return;
+		}
+		if (channel == null) {
+			throw new IOException(file + " is closed");
+		}
+		long position = channel.size();
+		try {
+			ByteBuffer line = ByteBuffer.wrap(encodeLine(item).getBytes(StandardCharsets.UTF_8));
+			while (line.hasRemaining()) {
+				channel.write(line);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			// a partly written line would swallow the next one
+			try {
+				channel.truncate(position);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	private Batch<E> enqueue(String key, E item) {
+		Batch<E> batch = batches.computeIfAbsent(key, k -> new Batch<>());
+		synchronized (batch) {
+			batch.items.add(item);
+		}
+		return batch;
+	}
+
+	private void schedule(String key, Batch<E> batch, Executor executor, long delay) {
+		synchronized (batch) {
+			if (batch.scheduled || batch.items.isEmpty()) {
+				return;
+			}
+			batch.scheduled = true;
+		}
+		try {
+			runLater(key, batch, executor, delay);
+		} catch (RuntimeException e) {
+			synchronized (batch) {
+				batch.scheduled = false;
+			}
+			throw e;
+		}
+	}
+
+	private void flush(String key, Batch<E> batch, Executor executor) {
+		List<E> items;
+		synchronized (batch) {
+			items = new ArrayList<>(batch.items);
+		}
+		try {
+			handler.handle(key, items);
+		} catch (Exception e) {
+			long delay;
+			synchronized (batch) {
+				batch.failures++;
+				delay = Math.min(maxRetryMs, retryMs << Math.min(batch.failures - 1, 20));
+			}
+			try {
+				runLater(key, batch, executor, delay);
+			} catch (RejectedExecutionException rejected) {
+				// shut down, the items stay in the file
+				synchronized (batch) {
+					batch.scheduled = false;
+				}
+			}
+			metrics.increment(name + "_retries", 1);
+			logger.log(Level.WARNING, "Can't write " + key + ", retrying in " + delay + " ms", e);
+			return;
+		}
+		boolean more;
+		synchronized (batch) {
+			batch.failures = 0;
+			// items queued during the pass follow the handled ones
+			batch.items.subList(0, items.size()).clear();
+			more = !batch.items.isEmpty();
+			if (!more) {
+				batch.scheduled = false;
+			}
+		}
+		compactIfNeeded(items.size());
+		if (more) {
+			try {
+				executor.execute(() -> flush(key, batch, executor));
+			} catch (RejectedExecutionException e) {
+				synchronized (batch) {
+					batch.scheduled = false;
+				}
+			}
+		}
+		metrics.increment(name + "_writes", 1);
+	}
+
+	private void runLater(String key, Batch<E> batch, Executor executor, long delay) {
+		Runnable task = () -> flush(key, batch, executor);
+		if (delay <= 0) {
+			executor.execute(task);
+			return;
+		}
+		timer().schedule(() -> {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				synchronized (batch) {
+					batch.scheduled = false;
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private ScheduledExecutorService timer() {
+		ScheduledExecutorService scheduler = timer;
+		if (scheduler == null) {
+			synchronized (this) {
+				if (timer == null) {
+					String thread = "contactservice-" + name.replace('_', '-');
+					timer = Executors.newSingleThreadScheduledExecutor(r -> {
+						Thread t = new Thread(r, thread);
+						t.setDaemon(true);
+						return t;
+					});
+				}
+				scheduler = timer;
+			}
+		}
+		return scheduler;
+	}
+
+	private void compactIfNeeded(int handled) {
+		if (file == null) {
+			return;
+		}
+		synchronized (fileLock) {
+			handledSinceCompaction += handled;
+			if (channel == null || (handledSinceCompaction < COMPACTION_THRESHOLD && size() > 0)) {
+				return;
+			}
+			try {
+				compact();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Can't compact " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the file with the pending items only. Must be called holding the file lock.
+	 */
+	private void compact() throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (Batch<E> batch : batches.values()) {
+			synchronized (batch) {
+				for (E item : batch.items) {
+					content.append(encodeLine(item));
+				}
+			}
+		}
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			handledSinceCompaction = 0;
+		} finally {
+			// appends continue in the old file if the move failed
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		}
+	}
+
+	private String encodeLine(E item) {
+		String data = format.encode(item);
+		return Long.toHexString(checksum(data)) + "\t" + data + "\n";
+	}
+
+	private E decodeLine(String line) {
+		int tab = line.indexOf('\t');
+		if (tab < 0) {
+			return null;
+		}
+		String data = line.substring(tab + 1);
+		try {
+			if (Long.parseLong(line.substring(0, tab), 16) != checksum(data)) {
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return format.decode(data);
+	}
+
+	private static long checksum(String data) {
+		CRC32 crc = new CRC32();
+		crc.update(data.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+}
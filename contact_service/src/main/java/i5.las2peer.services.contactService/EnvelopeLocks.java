@@ -0,0 +1,74 @@
+package i5.las2peer.services.contactService;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes the read-modify-write cycles of this node on the same envelope, so concurrent requests of one node do
+ * not overwrite each other's changes. The locks are striped: identifiers are hashed onto a fixed number of locks, so
+ * the table does not grow with the number of envelopes and mutations of different envelopes rarely wait for each
+ * other. Writes of other nodes are not affected, conflicts with them are still detected by the storage.
+ */
+public class EnvelopeLocks {
+
+	static final int MAX_STRIPES = 1 << 16;
+
+	private final ReentrantLock[] stripes;
+	private final ServiceMetrics metrics;
+
+	/**
+	 * @param stripes Number of locks, rounded up to a power of two and at most {@link #MAX_STRIPES}.
+	 * @param metrics Metrics to record waiting in.
+	 */
+	public EnvelopeLocks(int stripes, ServiceMetrics metrics) {
+		int size = Integer.highestOneBit(Math.max(1, stripes));
+		if (size < stripes && size < MAX_STRIPES) {
+			size <<= 1;
+		}
+		size = Math.min(size, MAX_STRIPES);
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Acquires the lock of an envelope, waiting if another thread holds it. The caller must release the returned lock
+	 * in a finally block. The lock is not held if this method throws.
+	 *
+	 * @param identifier Identifier of the envelope.
+	 * @return The acquired lock.
+	 */
+	public Lock lock(String identifier) {
+		ReentrantLock lock = stripes[index(identifier)];
+		if (lock.tryLock()) {
+			return lock;
+		}
+		metrics.increment("envelope_lock_contended", 1);
+		long start = System.nanoTime();
+		lock.lock();
+		long waited = System.nanoTime() - start;
+		try {
+			metrics.recordOperation("envelopeLockWait", waited);
+			RequestTrace.record("envelopeLockWait", waited);
+		} catch (RuntimeException | Error e) {
+			// the caller's finally block is not reached
+			lock.unlock();
+			throw e;
+		}
+		return lock;
+	}
+
+	/**
+	 * @return Number of locks.
+	 */
+	public int getStripes() {
+		return stripes.length;
+	}
+
+	private int index(String identifier) {
+		int h = identifier.hashCode();
+		return (h ^ (h >>> 16)) & (stripes.length - 1);
+	}
+}
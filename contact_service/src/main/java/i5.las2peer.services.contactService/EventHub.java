@@ -0,0 +1,286 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers change notifications to subscribed clients as Server-Sent Events.
+ *
+ * A subscription is a small bounded buffer of events, it does not hold a thread or a connection. Clients fetch the
+ * buffered events with a request that returns them in the text/event-stream format and reconnect afterwards, as
+ * EventSource does by itself. The id of every event names the subscription and the position in it, so the
+ * Last-Event-ID header of the reconnect tells which subscription to continue and which events were received. Events
+ * stay buffered until they were acknowledged this way.
+ *
+ * Subscriptions whose buffer runs full (slow consumers) or which were not polled for the idle timeout are evicted;
+ * their client gets a resync event and a new subscription on the next request. An agent holds a bounded number of
+ * subscriptions, a new one evicts the agent's subscription polled least recently, e.g. the one a client abandoned by
+ * reconnecting without Last-Event-ID. Only a bounded number of requests wait
+ * for new events at the same time, the others return a heartbeat immediately.
+ */
+public class EventHub {
+
+	private static class Event {
+		final long seq;
+		final String type;
+		final String data;
+
+		Event(long seq, String type, String data) {
+			this.seq = seq;
+			this.type = type;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Buffered events of one client.
+	 */
+	public static class Subscription {
+		private final String id;
+		private final String agentId;
+		private final ArrayDeque<Event> buffer = new ArrayDeque<>();
+		private long nextSeq = 1;
+		private volatile long lastPoll = System.currentTimeMillis();
+		private boolean evicted;
+		private boolean resync;
+
+		Subscription(String id, String agentId) {
+			this.id = id;
+			this.agentId = agentId;
+		}
+
+		public String getId() {
+			return id;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Set<Subscription>> byAgent = new ConcurrentHashMap<>();
+	private final AtomicLong lastSweep = new AtomicLong();
+	private final ServiceMetrics metrics;
+	private final int bufferSize;
+	private final long idleTimeoutMs;
+	private final int maxPerAgent;
+	private final long retryMs;
+	private final Semaphore waiters;
+
+	/**
+	 * @param metrics Metrics to count evicted subscriptions in.
+	 * @param bufferSize Maximum number of unacknowledged events per subscription.
+	 * @param idleTimeoutMs Time after which a subscription which was not polled is evicted.
+	 * @param maxWaiters Maximum number of requests waiting for events at the same time.
+	 * @param maxPerAgent Maximum number of subscriptions of one agent.
+	 * @param retryMs Reconnect delay suggested to clients.
+	 */
+	public EventHub(ServiceMetrics metrics, int bufferSize, long idleTimeoutMs, int maxWaiters, int maxPerAgent,
+			long retryMs) {
+		this.metrics = metrics;
+		this.bufferSize = Math.max(1, bufferSize);
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.maxPerAgent = Math.max(1, maxPerAgent);
+		this.retryMs = retryMs;
+		this.waiters = new Semaphore(Math.max(0, maxWaiters));
+	}
+
+	/**
+	 * Continues the subscription named in a Last-Event-ID or creates a new one.
+	 *
+	 * @param agentId Id of the subscribing agent.
+	 * @param lastEventId Last event id the client received, null on the first connect.
+	 * @return The subscription.
+	 */
+	public Subscription subscribe(String agentId, String lastEventId) {
+		String subscriptionId = lastEventId == null ? null : subscriptionOf(lastEventId);
+		Subscription s = subscriptionId == null ? null : subscriptions.get(subscriptionId);
+		if (s != null && s.agentId.equals(agentId)) {
+			synchronized (s) {
+				if (!s.evicted) {
+					s.lastPoll = System.currentTimeMillis();
+					acknowledge(s, sequenceOf(lastEventId));
+					return s;
+				}
+			}
+		}
+		s = new Subscription(UUID.randomUUID().toString(), agentId);
+		// a client coming back with an unknown or evicted subscription may have missed events
+		s.resync = lastEventId != null;
+		subscriptions.put(s.id, s);
+		Subscription added = s;
+		Set<Subscription> own = byAgent.compute(agentId, (k, set) -> {
+			Set<Subscription> result = set == null ? ConcurrentHashMap.newKeySet() : set;
+			result.add(added);
+			return result;
+		});
+		while (own.size() > maxPerAgent) {
+			Subscription oldest = null;
+			for (Subscription other : own) {
+				if (other != s && (oldest == null || other.lastPoll < oldest.lastPoll)) {
+					oldest = other;
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			synchronized (oldest) {
+				evict(oldest);
+			}
+		}
+		evictIdle();
+		return s;
+	}
+
+	/**
+	 * Buffers a change for all subscriptions allowed to see it.
+	 *
+	 * @param change The change.
+	 * @param data Payload of the event.
+	 * @return Number of subscriptions evicted because their buffer was full.
+	 */
+	public int publish(ChangeJournal.Change change, String data) {
+		int evicted = 0;
+		if (change.getAudience() == null) {
+			for (Subscription s : subscriptions.values()) {
+				evicted += offer(s, change.getType(), data);
+			}
+		} else {
+			for (String agentId : change.getAudience()) {
+				Set<Subscription> set = byAgent.get(agentId);
+				if (set != null) {
+					for (Subscription s : set) {
+						evicted += offer(s, change.getType(), data);
+					}
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Renders the buffered events of a subscription. Waits up to the given time if there are none and a waiting slot
+	 * is free.
+	 *
+	 * @param s The subscription.
+	 * @param waitMs Maximum time to wait for events.
+	 * @return Events, heartbeat and retry hint in the text/event-stream format.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public String poll(Subscription s, long waitMs) throws InterruptedException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("retry: ").append(retryMs).append('\n');
+		synchronized (s) {
+			if (s.resync) {
+				sb.append("id: ").append(s.id).append(":0\nevent: resync\ndata: {}\n\n");
+				s.resync = false;
+				return sb.toString();
+			}
+			if (s.buffer.isEmpty() && waitMs > 0 && waiters.tryAcquire()) {
+				try {
+					long deadline = System.currentTimeMillis() + waitMs;
+					long left = waitMs;
+					while (s.buffer.isEmpty() && !s.evicted && left > 0) {
+						s.wait(left);
+						left = deadline - System.currentTimeMillis();
+					}
+				} finally {
+					waiters.release();
+				}
+			}
+			s.lastPoll = System.currentTimeMillis();
+			if (s.buffer.isEmpty()) {
+				// heartbeat, also tells a new client the id of its subscription
+				sb.append(": heartbeat\nid: ").append(s.id).append(':').append(s.nextSeq - 1).append("\n\n");
+			}
+			for (Event e : s.buffer) {
+				sb.append("id: ").append(s.id).append(':').append(e.seq).append('\n');
+				sb.append("event: ").append(e.type).append('\n');
+				sb.append("data: ").append(e.data).append("\n\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Evicts subscriptions which were not polled for the idle timeout. Does nothing if the last sweep was recent.
+	 *
+	 * @return Number of evicted subscriptions.
+	 */
+	public int evictIdle() {
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (now - last < idleTimeoutMs / 4 || !lastSweep.compareAndSet(last, now)) {
+			return 0;
+		}
+		int evicted = 0;
+		for (Subscription s : subscriptions.values()) {
+			if (now - s.lastPoll > idleTimeoutMs) {
+				synchronized (s) {
+					evict(s);
+				}
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * @return Number of active subscriptions.
+	 */
+	public int size() {
+		return subscriptions.size();
+	}
+
+	private int offer(Subscription s, String type, String data) {
+		synchronized (s) {
+			if (s.evicted) {
+				return 0;
+			}
+			if (s.buffer.size() >= bufferSize) {
+				evict(s);
+				return 1;
+			}
+			s.buffer.add(new Event(s.nextSeq++, type, data));
+			s.notifyAll();
+			return 0;
+		}
+	}
+
+	private void acknowledge(Subscription s, long seq) {
+		Iterator<Event> it = s.buffer.iterator();
+		while (it.hasNext() && it.next().seq <= seq) {
+			it.remove();
+		}
+	}
+
+	private void evict(Subscription s) {
+		if (s.evicted) {
+			return;
+		}
+		s.evicted = true;
+		s.buffer.clear();
+		s.notifyAll();
+		subscriptions.remove(s.id, s);
+		byAgent.computeIfPresent(s.agentId, (k, set) -> {
+			set.remove(s);
+			return set.isEmpty() ? null : set;
+		});
+		metrics.increment("event_subscriptions_evicted", 1);
+	}
+
+	private static String subscriptionOf(String eventId) {
+		int sep = eventId.lastIndexOf(':');
+		return sep < 0 ? null : eventId.substring(0, sep);
+	}
+
+	private static long sequenceOf(String eventId) {
+		try {
+			return Long.parseLong(eventId.substring(eventId.lastIndexOf(':') + 1));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
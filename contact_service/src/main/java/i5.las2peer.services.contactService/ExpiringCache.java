@@ -0,0 +1,106 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches values for the time-to-live given when they were added. The cache is bounded, expired entries are dropped
+ * when it runs full.
+ *
+ * @param <K> Type of the keys.
+ * @param <V> Type of the values.
+ */
+public class ExpiringCache<K, V> {
+
+	private static class Entry<V> {
+		final V value;
+		final long expiry;
+
+		Entry(V value, long expiry) {
+			this.value = value;
+			this.expiry = expiry;
+		}
+	}
+
+	private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private volatile int maxSize;
+
+	/**
+	 * @param maxSize Maximum number of cached values.
+	 */
+	public ExpiringCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param key Key to look up.
+	 * @return The cached value or null if there is none or it expired.
+	 */
+	public V get(K key) {
+		Entry<V> e = entries.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (e.expiry <= System.currentTimeMillis()) {
+			entries.remove(key, e);
+			return null;
+		}
+		return e.value;
+	}
+
+	/**
+	 * Caches a value.
+	 *
+	 * @param key Key of the value.
+	 * @param value The value.
+	 * @param ttlMs How long to cache the value. Nothing is cached if not positive.
+	 */
+	public void put(K key, V value, long ttlMs) {
+		if (ttlMs <= 0 || value == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (entries.size() >= maxSize && !entries.containsKey(key)) {
+			entries.values().removeIf(e -> e.expiry <= now);
+			if (entries.size() >= maxSize) {
+				return;
+			}
+		}
+		entries.put(key, new Entry<>(value, now + ttlMs));
+	}
+
+	/**
+	 * Forgets a cached value, e.g. because it was changed.
+	 *
+	 * @param key Key of the value.
+	 */
+	public void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Changes the maximum number of cached values. If the cache holds more values, expired ones and then arbitrary ones
+	 * are dropped.
+	 *
+	 * @param maxSize Maximum number of cached values.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		if (entries.size() > maxSize) {
+			long now = System.currentTimeMillis();
+			entries.values().removeIf(e -> e.expiry <= now);
+			Iterator<K> it = entries.keySet().iterator();
+			while (entries.size() > maxSize && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of cached values, including expired ones not yet dropped.
+	 */
+	public int size() {
+		return entries.size();
+	}
+}
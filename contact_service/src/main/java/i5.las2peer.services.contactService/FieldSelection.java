@@ -0,0 +1,105 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Locale;
+
+/**
+ * The fields of the agents a list endpoint returns, given by its <code>fields</code> query parameter as comma
+ * separated list of <code>id</code>, <code>name</code> and <code>profile</code>. The id is always returned. Without
+ * the parameter, ids and names are returned. The <code>expand=profile</code> query parameter adds the profile to the
+ * selected fields.
+ */
+public class FieldSelection {
+
+	/**
+	 * Query parameter selecting the fields.
+	 */
+	public static final String PARAMETER = "fields";
+
+	/**
+	 * Query parameter adding fields to the selection.
+	 */
+	public static final String EXPAND_PARAMETER = "expand";
+
+	private static final String ID = "id";
+	private static final String NAME = "name";
+	private static final String PROFILE = "profile";
+
+	private final boolean name;
+	private final boolean profile;
+
+	private FieldSelection(boolean name, boolean profile) {
+		this.name = name;
+		this.profile = profile;
+	}
+
+	/**
+	 * @param value Value of the query parameter, may be null or empty.
+	 * @return The selected fields.
+	 * @throws IllegalArgumentException If the value names unknown fields or not the id.
+	 */
+	public static FieldSelection parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return new FieldSelection(true, false);
+		}
+		boolean id = false;
+		boolean name = false;
+		boolean profile = false;
+		for (String field : value.toLowerCase(Locale.ROOT).split(",")) {
+			switch (field.trim()) {
+			case ID:
+				id = true;
+				break;
+			case NAME:
+				name = true;
+				break;
+			case PROFILE:
+				profile = true;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown field " + field.trim());
+			}
+		}
+		if (!id) {
+			throw new IllegalArgumentException("The field id is required");
+		}
+		return new FieldSelection(name, profile);
+	}
+
+	/**
+	 * @param fields Value of the fields query parameter, may be null or empty.
+	 * @param expand Value of the expand query parameter, may be null or empty.
+	 * @return The selected fields.
+	 * @throws IllegalArgumentException If a value names unknown fields or the fields do not include the id.
+	 */
+	public static FieldSelection parse(String fields, String expand) {
+		FieldSelection selection = parse(fields);
+		if (expand == null || expand.trim().isEmpty()) {
+			return selection;
+		}
+		if (!expand.trim().equalsIgnoreCase(PROFILE)) {
+			throw new IllegalArgumentException("Unknown expansion " + expand.trim());
+		}
+		return new FieldSelection(selection.name, true);
+	}
+
+	/**
+	 * @return True if only ids are selected, so agents do not have to be fetched.
+	 */
+	public boolean isIdOnly() {
+		return !name && !profile;
+	}
+
+	/**
+	 * @return True if login names are selected.
+	 */
+	public boolean includesName() {
+		return name;
+	}
+
+	/**
+	 * @return True if user information is selected.
+	 */
+	public boolean includesProfile() {
+		return profile;
+	}
+}
@@ -0,0 +1,177 @@
+package i5.las2peer.services.contactService;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import i5.las2peer.logging.L2pLogger;
+
+/**
+ * Adds new groups to the group list in the background. Groups added while a write of the same envelope is running are
+ * collected and written together with the next write. Failed writes are retried with exponential backoff until they
+ * succeed, the pending groups stay queued in the meantime.
+ *
+ * Callers should report pending groups to readers of the group list themselves, see {@link #getPending(String)}. If
+ * a file is given, the pending groups are also appended to it before {@link #add(String, String, String, Executor)}
+ * returns, and {@link #open()} queues the groups a stopped or crashed node did not write yet. The file is kept by a
+ * {@link DurableQueue}, which drops damaged lines and removes written groups by rewriting the file from time to time.
+ */
+public class GroupListUpdater {
+
+	private static final L2pLogger logger = L2pLogger.getInstance(GroupListUpdater.class.getName());
+
+	/**
+	 * Writes groups to a group list envelope.
+	 */
+	public interface Writer {
+		/**
+		 * Adds groups to a group list and stores it.
+		 *
+		 * @param envelopeId Identifier of the group list envelope.
+		 * @param groups Group names mapped to group agent ids.
+		 * @throws Exception If the group list could not be stored.
+		 */
+		void write(String envelopeId, Map<String, String> groups) throws Exception;
+	}
+
+	/**
+	 * A group waiting to be added to a group list.
+	 */
+	private static class PendingGroup {
+		final String envelopeId;
+		final String name;
+		final String groupId;
+
+		PendingGroup(String envelopeId, String name, String groupId) {
+			this.envelopeId = envelopeId;
+			this.name = name;
+			this.groupId = groupId;
+		}
+	}
+
+	private static final DurableQueue.Format<PendingGroup> FORMAT = new DurableQueue.Format<PendingGroup>() {
+		@Override
+		public String key(PendingGroup group) {
+			return group.envelopeId;
+		}
+
+		@Override
+		public String encode(PendingGroup group) {
+			try {
+				return group.envelopeId + "\t" + URLEncoder.encode(group.name, "UTF-8") + "\t" + group.groupId;
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public PendingGroup decode(String data) {
+			String[] fields = data.split("\t", -1);
+			if (fields.length != 3) {
+				return null;
+			}
+			try {
+				return new PendingGroup(fields[0], URLDecoder.decode(fields[1], "UTF-8"), fields[2]);
+			} catch (IllegalArgumentException | UnsupportedEncodingException e) {
+				return null;
+			}
+		}
+	};
+
+	private final DurableQueue<PendingGroup> queue;
+
+	/**
+	 * Creates an updater which keeps the pending groups in memory only.
+	 *
+	 * @param metrics Metrics to count writes and retries in.
+	 * @param writer Writes the groups.
+	 * @param retryMs Delay before the first retry of a failed write.
+	 * @param maxRetryMs Maximum delay between retries.
+	 */
+	public GroupListUpdater(ServiceMetrics metrics, Writer writer, long retryMs, long maxRetryMs) {
+		this(metrics, writer, retryMs, maxRetryMs, null);
+	}
+
+	/**
+	 * @param metrics Metrics to count writes and retries in.
+	 * @param writer Writes the groups.
+	 * @param retryMs Delay before the first retry of a failed write.
+	 * @param maxRetryMs Maximum delay between retries.
+	 * @param file File to save the pending groups to, null to keep them in memory only.
+	 */
+	public GroupListUpdater(ServiceMetrics metrics, Writer writer, long retryMs, long maxRetryMs, Path file) {
+		this.queue = new DurableQueue<>("group_list", file, FORMAT,
+				(envelopeId, groups) -> writer.write(envelopeId, toMap(groups)), metrics, 0, retryMs, maxRetryMs);
+	}
+
+	/**
+	 * Queues the groups saved in the file. They are written once {@link #resume(Executor)} is called.
+	 *
+	 * @return Number of queued groups.
+	 * @throws IOException If the file cannot be read or written.
+	 */
+	public int open() throws IOException {
+		return queue.open();
+	}
+
+	/**
+	 * Starts writing the groups queued by {@link #open()}. Only the first call has an effect.
+	 *
+	 * @param executor Executor providing the context the writes need.
+	 */
+	public void resume(Executor executor) {
+		queue.resume(executor);
+	}
+
+	/**
+	 * Queues a group for the group list. If the group cannot be saved to the file, it is kept in memory and saved
+	 * with the next rewrite of the file.
+	 *
+	 * @param envelopeId Identifier of the group list envelope.
+	 * @param name Name of the group.
+	 * @param groupId Id of the group agent.
+	 * @param executor Executor providing the context the writes need.
+	 */
+	public void add(String envelopeId, String name, String groupId, Executor executor) {
+		queue.offer(new PendingGroup(envelopeId, name, groupId), executor);
+	}
+
+	/**
+	 * @param envelopeId Identifier of the group list envelope.
+	 * @return Groups not yet written to the envelope, names mapped to group agent ids.
+	 */
+	public Map<String, String> getPending(String envelopeId) {
+		return toMap(queue.getPending(envelopeId));
+	}
+
+	/**
+	 * @return Number of groups not yet written.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops retrying. Groups still pending are logged, with a file they are queued again by the next {@link #open()}.
+	 */
+	public void shutdown() {
+		int pending = queue.close();
+		if (pending > 0) {
+			logger.warning(pending + " groups were not added to the group list");
+		}
+	}
+
+	private static Map<String, String> toMap(List<PendingGroup> groups) {
+		Map<String, String> map = new LinkedHashMap<>();
+		for (PendingGroup group : groups) {
+			map.put(group.name, group.groupId);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,120 @@
+package i5.las2peer.services.contactService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs reads with a deadline and, if a read takes longer than a delay, sends a second attempt and takes whichever
+ * attempt succeeds first. Must only be used for reads, a write could be applied twice.
+ *
+ * The number of second attempts is bounded by a budget: at most the given percentage of all reads, plus a small
+ * allowance for the start, may be hedged.
+ */
+public class HedgedReads {
+
+	private static final int ALLOWANCE = 10;
+
+	private final ServiceMetrics metrics;
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+
+	/**
+	 * @param metrics Metrics to count hedges sent and won and timeouts in.
+	 */
+	public HedgedReads(ServiceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Performs a read.
+	 *
+	 * @param <V> Type of the read value.
+	 * @param read The read. Attempts run on the executor.
+	 * @param executor Executor providing the context the read needs.
+	 * @param hedgeDelayNanos Time after which a second attempt is sent, 0 or less to never send one.
+	 * @param timeoutMs Time after which the read fails.
+	 * @param budgetPercent Percentage of reads which may be hedged.
+	 * @return The value of the first successful attempt.
+	 * @throws TimeoutException If no attempt succeeded in time.
+	 * @throws Exception The failure of the last failing attempt.
+	 */
+	public <V> V read(SingleFlight.Loader<V> read, Executor executor, long hedgeDelayNanos, long timeoutMs,
+			int budgetPercent) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		reads.incrementAndGet();
+		CompletableFuture<V> result = new CompletableFuture<>();
+		AtomicInteger pending = new AtomicInteger(1);
+		AtomicBoolean answered = new AtomicBoolean();
+		attempt(read, executor, result, pending, answered, false);
+		if (hedgeDelayNanos > 0 && hedgeDelayNanos < deadline - System.nanoTime()) {
+			try {
+				return unwrap(result, hedgeDelayNanos);
+			} catch (TimeoutException e) {
+				if (takeBudget(budgetPercent)) {
+					metrics.increment("hedges_sent", 1);
+					pending.incrementAndGet();
+					attempt(read, executor, result, pending, answered, true);
+				}
+			}
+		}
+		try {
+			return unwrap(result, deadline - System.nanoTime());
+		} catch (TimeoutException e) {
+			metrics.increment("read_timeouts", 1);
+			throw e;
+		}
+	}
+
+	private <V> void attempt(SingleFlight.Loader<V> read, Executor executor, CompletableFuture<V> result,
+			AtomicInteger pending, AtomicBoolean answered, boolean hedge) {
+		executor.execute(() -> {
+			try {
+				V value = read.load();
+				// the first successful attempt answers, counted before the caller sees the value
+				if (answered.compareAndSet(false, true)) {
+					try {
+						if (hedge) {
+							metrics.increment("hedges_won", 1);
+						}
+					} finally {
+						result.complete(value);
+					}
+				}
+			} catch (Exception e) {
+				// the read fails only if no other attempt is left
+				if (pending.decrementAndGet() == 0) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	private boolean takeBudget(int budgetPercent) {
+		while (true) {
+			long sent = hedges.get();
+			if ((sent - ALLOWANCE) * 100 >= reads.get() * budgetPercent) {
+				return false;
+			}
+			if (hedges.compareAndSet(sent, sent + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private static <V> V unwrap(CompletableFuture<V> future, long nanos) throws Exception {
+		try {
+			return future.get(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package i5.las2peer.services.contactService;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Caches the mapping between agent ids and login names in both directions, so names of contacts and address book
+ * entries do not have to be fetched from the network on every request.
+ *
+ * The cache can be saved to and loaded from a snapshot file, which lets a restarted node start warm. The file is
+ * written to a temporary file first and moved into place, and it carries a format version and a CRC32 checksum of its
+ * entries. Files with another version, a wrong checksum or a truncated body are discarded.
+ */
+public class IdentityCache {
+
+	private static final int MAGIC = 0x43534943; // "CSIC"
+	private static final int FORMAT_VERSION = 1;
+	// magic, version, entry count, checksum
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+	private static class Entry {
+		final String id;
+		final String name;
+		final long fetched;
+
+		Entry(String id, String name, long fetched) {
+			this.id = id;
+			this.name = name;
+			this.fetched = fetched;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> byId = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Entry> byName = new ConcurrentHashMap<>();
+	private volatile int maxSize;
+	private volatile boolean dirty;
+
+	/**
+	 * @param maxSize Maximum number of cached identities.
+	 */
+	public IdentityCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param id Id of an agent.
+	 * @param ttlMs Maximum age of the entry.
+	 * @return The login name of the agent or null if unknown or too old.
+	 */
+	public String getLoginName(String id, long ttlMs) {
+		Entry e = byId.get(id);
+		return e != null && !expired(e, ttlMs) ? e.name : null;
+	}
+
+	/**
+	 * @param loginName Login name of a user.
+	 * @param ttlMs Maximum age of the entry.
+	 * @return The id of the user's agent or null if unknown or too old.
+	 */
+	public String getId(String loginName, long ttlMs) {
+		Entry e = byName.get(loginName);
+		return e != null && !expired(e, ttlMs) ? e.id : null;
+	}
+
+	/**
+	 * Caches an identity.
+	 *
+	 * @param id Id of the agent.
+	 * @param loginName Login name of the agent.
+	 * @param ttlMs Time to live, used to drop expired entries when the cache is full.
+	 */
+	public void put(String id, String loginName, long ttlMs) {
+		if (id == null || loginName == null) {
+			return;
+		}
+		if (byId.size() >= maxSize && !byId.containsKey(id)) {
+			byId.values().removeIf(e -> expired(e, ttlMs));
+			byName.values().removeIf(e -> expired(e, ttlMs));
+			if (byId.size() >= maxSize) {
+				return;
+			}
+		}
+		Entry entry = new Entry(id, loginName, System.currentTimeMillis());
+		byId.put(id, entry);
+		byName.put(loginName, entry);
+		dirty = true;
+	}
+
+	/**
+	 * Forgets an agent, e.g. because it does not exist anymore.
+	 *
+	 * @param id Id of the agent.
+	 */
+	public void remove(String id) {
+		Entry e = byId.remove(id);
+		if (e != null) {
+			byName.remove(e.name, e);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return Number of cached identities.
+	 */
+	public int size() {
+		return byId.size();
+	}
+
+	/**
+	 * Changes the maximum number of cached identities. If more are cached, arbitrary ones are dropped.
+	 *
+	 * @param maxSize Maximum number of cached identities.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		Iterator<Entry> it = byId.values().iterator();
+		while (byId.size() > maxSize && it.hasNext()) {
+			Entry e = it.next();
+			it.remove();
+			byName.remove(e.name, e);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return True if the cache changed since it was last saved or loaded.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Writes all entries to a snapshot file.
+	 *
+	 * @param file The snapshot file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public synchronized void save(Path file) throws IOException {
+		dirty = false;
+		List<byte[]> ids = new ArrayList<>();
+		List<byte[]> names = new ArrayList<>();
+		List<Long> fetched = new ArrayList<>();
+		int size = HEADER_SIZE;
+		for (Entry e : byId.values()) {
+			byte[] id = e.id.getBytes(StandardCharsets.UTF_8);
+			byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+			if (id.length > Short.MAX_VALUE || name.length > Short.MAX_VALUE) {
+				continue;
+			}
+			ids.add(id);
+			names.add(name);
+			fetched.add(e.fetched);
+			size += 8 + 2 + id.length + 2 + name.length;
+		}
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.position(HEADER_SIZE);
+			for (int i = 0; i < ids.size(); i++) {
+				buffer.putLong(fetched.get(i));
+				buffer.putShort((short) ids.get(i).length);
+				buffer.put(ids.get(i));
+				buffer.putShort((short) names.get(i).length);
+				buffer.put(names.get(i));
+			}
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, FORMAT_VERSION);
+			buffer.putInt(8, ids.size());
+			buffer.putLong(12, checksum(buffer, size));
+			buffer.force();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds the entries of a snapshot file which are not older than the time to live. A file with an unknown format
+	 * version or a wrong checksum is discarded.
+	 *
+	 * @param file The snapshot file.
+	 * @param ttlMs Maximum age of the loaded entries.
+	 * @return Number of loaded entries, -1 if the file was discarded.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public synchronized int load(Path file, long ttlMs) throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				return -1;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION
+					|| buffer.getLong(12) != checksum(buffer, (int) size)) {
+				return -1;
+			}
+			int count = buffer.getInt(8);
+			List<Entry> entries = new ArrayList<>();
+			try {
+				buffer.position(HEADER_SIZE);
+				for (int i = 0; i < count; i++) {
+					long fetched = buffer.getLong();
+					String id = readString(buffer);
+					String name = readString(buffer);
+					entries.add(new Entry(id, name, fetched));
+				}
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				return -1;
+			}
+			int loaded = 0;
+			for (Entry e : entries) {
+				if (!expired(e, ttlMs) && byId.size() < maxSize) {
+					byId.putIfAbsent(e.id, e);
+					byName.putIfAbsent(e.name, e);
+					loaded++;
+				}
+			}
+			return loaded;
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		int length = buffer.getShort();
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long checksum(MappedByteBuffer buffer, int size) {
+		ByteBuffer body = buffer.duplicate();
+		body.limit(size);
+		body.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return crc.getValue();
+	}
+
+	private static boolean expired(Entry e, long ttlMs) {
+		return System.currentTimeMillis() - e.fetched > ttlMs;
+	}
+}
@@ -0,0 +1,120 @@
+package i5.las2peer.services.contactService;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets. Every power of two is split into 16 linear sub-buckets, so a
+ * reported percentile is never more than about 3% away from the recorded value. Recording is a single atomic
+ * increment and never allocates.
+ *
+ * Values are recorded in microseconds and are capped at roughly 38 hours.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_MAGNITUDE = 37;
+	private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one observation.
+	 *
+	 * @param micros Observed latency in microseconds. Negative values are recorded as zero.
+	 */
+	public void record(long micros) {
+		long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+		buckets.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records one observation given in nanoseconds.
+	 *
+	 * @param nanos Observed latency in nanoseconds.
+	 */
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+
+	/**
+	 * @return Number of recorded observations.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return Sum of all recorded observations in microseconds.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return Largest recorded observation in microseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimates a percentile from the current bucket counts.
+	 *
+	 * @param quantile Quantile between 0 and 1, e.g. 0.99.
+	 * @return The estimated latency in microseconds or 0 if nothing was recorded yet.
+	 */
+	public long percentile(double quantile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(Math.max(quantile, 0), 1) * total);
+		rank = Math.max(rank, 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(midpointOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+	}
+
+	private static long midpointOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long lower = (long) (SUB_BUCKETS + sub) << shift;
+		return lower + ((1L << shift) >> 1);
+	}
+}
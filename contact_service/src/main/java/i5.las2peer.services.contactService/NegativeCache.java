@@ -0,0 +1,93 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers keys whose lookup failed for a short time, so repeated lookups of the same unknown key do not go to the
+ * network again. Entries expire after the time-to-live given when they were added. The cache is bounded, expired
+ * entries are dropped when it runs full.
+ */
+public class NegativeCache {
+
+	private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+	private volatile int maxSize;
+
+	/**
+	 * @param maxSize Maximum number of remembered keys.
+	 */
+	public NegativeCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Remembers a failed lookup.
+	 *
+	 * @param key Key whose lookup failed.
+	 * @param ttlMs How long to remember the failure. Nothing is remembered if not positive.
+	 */
+	public void add(String key, long ttlMs) {
+		if (ttlMs <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (expiries.size() >= maxSize) {
+			expiries.values().removeIf(expiry -> expiry <= now);
+			if (expiries.size() >= maxSize) {
+				return;
+			}
+		}
+		expiries.put(key, now + ttlMs);
+	}
+
+	/**
+	 * @param key Key to look up.
+	 * @return True if a lookup of the key failed recently.
+	 */
+	public boolean contains(String key) {
+		Long expiry = expiries.get(key);
+		if (expiry == null) {
+			return false;
+		}
+		if (expiry <= System.currentTimeMillis()) {
+			expiries.remove(key, expiry);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets a failed lookup, e.g. because the key became known.
+	 *
+	 * @param key Key to forget.
+	 */
+	public void remove(String key) {
+		expiries.remove(key);
+	}
+
+	/**
+	 * Changes the maximum number of remembered keys. If more keys are remembered, expired ones and then arbitrary ones
+	 * are forgotten.
+	 *
+	 * @param maxSize Maximum number of remembered keys.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		if (expiries.size() > maxSize) {
+			long now = System.currentTimeMillis();
+			expiries.values().removeIf(expiry -> expiry <= now);
+			Iterator<String> it = expiries.keySet().iterator();
+			while (expiries.size() > maxSize && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of remembered keys, including expired ones not yet dropped.
+	 */
+	public int size() {
+		return expiries.size();
+	}
+}
@@ -0,0 +1,17 @@
+package i5.las2peer.services.contactService;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Number of rate limit tokens a resource method costs, see {@link RateLimitFilter}. The cost should reflect the
+ * storage and RMI operations the method usually performs. Methods without the annotation cost one token, methods
+ * with cost 0 are not limited.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RateCost {
+	int value();
+}
@@ -0,0 +1,58 @@
+package i5.las2peer.services.contactService;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Admission control for the service's resource methods. Every request takes tokens from the bucket of the requesting
+ * agent and from the node's global bucket, the number of tokens is given by the {@link RateCost} of the method.
+ * Requests finding not enough tokens are answered with 429 and a Retry-After header.
+ *
+ * Runs after the {@link RequestMetricsFilter}, so rejected requests show up in the metrics.
+ */
+@Priority(Priorities.USER - 50)
+public class RateLimitFilter implements ContainerRequestFilter {
+
+	private static final int TOO_MANY_REQUESTS = 429;
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		ContactService service = (ContactService) i5.las2peer.api.Context.get().getService();
+		if (!service.isRateLimitEnabled()) {
+			return;
+		}
+		int cost = cost();
+		if (cost <= 0) {
+			return;
+		}
+		String agentId = i5.las2peer.api.Context.get().getMainAgent().getIdentifier();
+		long wait = service.acquireTokens(agentId, cost);
+		if (wait > 0) {
+			long seconds = Math.max(1, (wait + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+			service.getMetrics().increment("rate_limited", 1);
+			requestContext.abortWith(Response.status(TOO_MANY_REQUESTS).header("Retry-After", seconds)
+					.type(MediaType.TEXT_PLAIN).entity("Too many requests, retry in " + seconds + " s.").build());
+		}
+	}
+
+	private int cost() {
+		Method method = resourceInfo == null ? null : resourceInfo.getResourceMethod();
+		if (method == null) {
+			return 1;
+		}
+		RateCost cost = method.getAnnotation(RateCost.class);
+		return cost == null ? 1 : cost.value();
+	}
+}
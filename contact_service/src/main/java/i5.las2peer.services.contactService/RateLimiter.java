@@ -0,0 +1,105 @@
+package i5.las2peer.services.contactService;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per agent and for the whole node. A request is admitted if both the agent's bucket and the global
+ * bucket hold enough tokens for its cost.
+ *
+ * The buckets are implemented as generic cell rate algorithm: a bucket is a single {@link AtomicLong} holding the
+ * theoretical arrival time, the time at which the bucket would be full again. Taking tokens moves it forward with a
+ * compare-and-set, so admission never blocks.
+ */
+public class RateLimiter {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private final ConcurrentHashMap<String, AtomicLong> agents = new ConcurrentHashMap<>();
+	private final AtomicLong global = new AtomicLong(System.nanoTime());
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private final int maxAgents;
+
+	/**
+	 * @param maxAgents Number of agent buckets above which full buckets are dropped.
+	 */
+	public RateLimiter(int maxAgents) {
+		this.maxAgents = maxAgents;
+	}
+
+	/**
+	 * Takes tokens for a request.
+	 *
+	 * @param agentId Id of the requesting agent.
+	 * @param cost Number of tokens the request costs.
+	 * @param agentRate Tokens per second refilled into each agent's bucket.
+	 * @param agentBurst Capacity of each agent's bucket.
+	 * @param globalRate Tokens per second refilled into the global bucket.
+	 * @param globalBurst Capacity of the global bucket.
+	 * @return 0 if the request is admitted, otherwise the nanoseconds after which it would be admitted.
+	 */
+	public long acquire(String agentId, int cost, double agentRate, int agentBurst, double globalRate,
+			int globalBurst) {
+		long now = System.nanoTime();
+		AtomicLong bucket = agents.get(agentId);
+		if (bucket == null) {
+			sweep(now);
+			bucket = agents.computeIfAbsent(agentId, k -> new AtomicLong(now));
+		}
+		long wait = take(bucket, now, cost, agentRate, agentBurst);
+		if (wait > 0) {
+			return wait;
+		}
+		wait = take(global, now, cost, globalRate, globalBurst);
+		if (wait > 0) {
+			// give the agent its tokens back, the request is not served
+			bucket.addAndGet(-interval(agentRate) * cost);
+		}
+		return wait;
+	}
+
+	/**
+	 * @return Number of agents with a bucket.
+	 */
+	public int size() {
+		return agents.size();
+	}
+
+	private static long take(AtomicLong bucket, long now, int cost, double rate, int burst) {
+		if (rate <= 0) {
+			return 0;
+		}
+		long interval = interval(rate);
+		long tolerance = interval * burst;
+		while (true) {
+			long tat = bucket.get();
+			long next = Math.max(tat, now) + interval * cost;
+			long ahead = next - now;
+			if (ahead > tolerance) {
+				return ahead - tolerance;
+			}
+			if (bucket.compareAndSet(tat, next)) {
+				return 0;
+			}
+		}
+	}
+
+	private static long interval(double rate) {
+		return rate <= 0 ? 0 : (long) (NANOS_PER_SECOND / rate);
+	}
+
+	/**
+	 * Drops the buckets of agents which are full again, they behave like new buckets.
+	 */
+	private void sweep(long now) {
+		if (agents.size() < maxAgents || !sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			agents.values().removeIf(tat -> tat.get() <= now);
+		} finally {
+			sweeping.set(false);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package i5.las2peer.services.contactService;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+
+/**
+ * Measures the latency of every resource method and records it in the service's {@link ServiceMetrics}. If enabled
+ * in the service configuration, the per-phase breakdown collected in the {@link RequestTrace} is returned in a
+ * Server-Timing header and requests above the slow-request threshold are logged.
+ */
+@Priority(Priorities.USER - 100)
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+	private static final String START_PROPERTY = "contactservice.requestStart";
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		requestContext.setProperty(START_PROPERTY, System.nanoTime());
+		RequestTrace.begin();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+		RequestTrace trace = RequestTrace.end();
+		Object start = requestContext.getProperty(START_PROPERTY);
+		if (!(start instanceof Long)) {
+			return;
+		}
+		long elapsed = System.nanoTime() - (Long) start;
+		// time spent waiting on purpose does not count as latency
+		long busy = trace == null ? elapsed : elapsed - trace.getNanos(RequestTrace.IDLE);
+		ContactService service = (ContactService) i5.las2peer.api.Context.get().getService();
+		String endpoint = endpointName();
+		service.getMetrics().recordRequest(endpoint, responseContext.getStatus(), busy);
+		if (trace == null) {
+			return;
+		}
+		service.getMetrics().recordEndpointOperations(endpoint, trace.getCounts());
+		boolean slow = service.getSlowRequestThresholdMs() > 0
+				&& busy >= service.getSlowRequestThresholdMs() * 1_000_000;
+		if (!service.isServerTimingEnabled() && !slow) {
+			return;
+		}
+		String timing = trace.toServerTiming(elapsed);
+		if (service.isServerTimingEnabled()) {
+			responseContext.getHeaders().add("Server-Timing", timing);
+		}
+		if (slow) {
+			service.logSlowRequest(endpoint, responseContext.getStatus(), busy, timing);
+		}
+	}
+
+	private String endpointName() {
+		Method method = resourceInfo == null ? null : resourceInfo.getResourceMethod();
+		if (method == null) {
+			return "unmatched";
+		}
+		return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+	}
+}
@@ -0,0 +1,162 @@
+package i5.las2peer.services.contactService;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects the time spent in the individual phases (storage operations, unlocking, deserialization, RMI calls) of
+ * the request handled by the current thread. A trace is started by the {@link RequestMetricsFilter} and filled by the
+ * service's storage helper methods. Tasks the request runs on other threads record into the same trace if they are
+ * wrapped with {@link #wrap(Callable)} or submitted to an executor wrapped with {@link #wrap(Executor)}.
+ */
+public class RequestTrace {
+
+	/**
+	 * Phase in which the request waits on purpose, e.g. for events to deliver. It is left out of latency statistics.
+	 */
+	public static final String IDLE = "idle";
+
+	private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+	private final long start = System.nanoTime();
+	// tasks of the request may record from several threads at once
+	private final LinkedHashMap<String, long[]> phases = new LinkedHashMap<>();
+
+	/**
+	 * Starts a new trace for the current thread and replaces any previous one.
+	 *
+	 * @return The new trace.
+	 */
+	public static RequestTrace begin() {
+		RequestTrace trace = new RequestTrace();
+		CURRENT.set(trace);
+		return trace;
+	}
+
+	/**
+	 * Ends the trace of the current thread.
+	 *
+	 * @return The ended trace or null if no trace was started.
+	 */
+	public static RequestTrace end() {
+		RequestTrace trace = CURRENT.get();
+		CURRENT.remove();
+		return trace;
+	}
+
+	/**
+	 * Wraps a task of the request handled by the current thread, so that the phases it records on another thread are
+	 * added to the request's trace.
+	 *
+	 * @param task The task.
+	 * @return The wrapped task, or the task itself if no trace was started.
+	 */
+	public static <V> Callable<V> wrap(Callable<V> task) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return task;
+		}
+		return () -> {
+			RequestTrace previous = CURRENT.get();
+			CURRENT.set(trace);
+			try {
+				return task.call();
+			} finally {
+				CURRENT.set(previous);
+			}
+		};
+	}
+
+	/**
+	 * Wraps an executor, so that the phases recorded by the tasks it runs are added to the trace of the request
+	 * handled by the current thread.
+	 *
+	 * @param executor The executor.
+	 * @return The wrapped executor, or the executor itself if no trace was started.
+	 */
+	public static Executor wrap(Executor executor) {
+		RequestTrace trace = CURRENT.get();
+		if (trace == null) {
+			return executor;
+		}
+		return task -> executor.execute(() -> {
+			RequestTrace previous = CURRENT.get();
+			CURRENT.set(trace);
+			try {
+				task.run();
+			} finally {
+				CURRENT.set(previous);
+			}
+		});
+	}
+
+	/**
+	 * Adds the duration of a phase to the trace of the current thread. Does nothing if no trace was started.
+	 *
+	 * @param phase Name of the phase, e.g. "requestEnvelope".
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public static void record(String phase, long nanos) {
+		RequestTrace trace = CURRENT.get();
+		if (trace != null) {
+			trace.add(phase, nanos);
+		}
+	}
+
+	private synchronized void add(String phase, long nanos) {
+		long[] entry = phases.computeIfAbsent(phase, k -> new long[2]);
+		entry[0]++;
+		entry[1] += nanos;
+	}
+
+	/**
+	 * @return Number of operations per phase in the order they first occurred.
+	 */
+	public synchronized Map<String, Long> getCounts() {
+		LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+		for (Map.Entry<String, long[]> e : phases.entrySet()) {
+			counts.put(e.getKey(), e.getValue()[0]);
+		}
+		return counts;
+	}
+
+	/**
+	 * @param phase Name of the phase.
+	 * @return Nanoseconds spent in the phase.
+	 */
+	public synchronized long getNanos(String phase) {
+		long[] entry = phases.get(phase);
+		return entry == null ? 0 : entry[1];
+	}
+
+	/**
+	 * @return Nanoseconds since the trace was started.
+	 */
+	public long getElapsedNanos() {
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Formats the trace as value of a Server-Timing header, e.g.
+	 * <code>requestEnvelope;dur=12.5;desc="1 op", fetchAgent;dur=40.1;desc="3 ops", total;dur=60.2</code>.
+	 *
+	 * @param totalNanos Total duration of the request in nanoseconds.
+	 * @return The header value.
+	 */
+	public synchronized String toServerTiming(long totalNanos) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, long[]> e : phases.entrySet()) {
+			long count = e.getValue()[0];
+			sb.append(e.getKey()).append(";dur=").append(millis(e.getValue()[1])).append(";desc=\"").append(count)
+					.append(count == 1 ? " op" : " ops").append("\", ");
+		}
+		return sb.append("total;dur=").append(millis(totalNanos)).toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+	}
+}
@@ -0,0 +1,119 @@
+package i5.las2peer.services.contactService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * The settings of the service which can be changed while it runs. Their initial values are read from the service's
+ * properties file. Every setting knows how to apply a new value, e.g. by resizing a cache, so a change takes effect
+ * without a restart.
+ */
+public class RuntimeSettings {
+
+	private static class Setting {
+		final long min;
+		final long max;
+		final LongSupplier value;
+		final LongConsumer apply;
+		final BooleanSupplier flag;
+		final Consumer<Boolean> applyFlag;
+
+		Setting(long min, long max, LongSupplier value, LongConsumer apply, BooleanSupplier flag,
+				Consumer<Boolean> applyFlag) {
+			this.min = min;
+			this.max = max;
+			this.value = value;
+			this.apply = apply;
+			this.flag = flag;
+			this.applyFlag = applyFlag;
+		}
+	}
+
+	private final TreeMap<String, Setting> settings = new TreeMap<>();
+
+	/**
+	 * Adds a numeric setting.
+	 *
+	 * @param name Name of the setting, as in the properties file.
+	 * @param min Smallest allowed value.
+	 * @param max Largest allowed value.
+	 * @param value Reads the current value.
+	 * @param apply Applies a new value.
+	 */
+	public void add(String name, long min, long max, LongSupplier value, LongConsumer apply) {
+		settings.put(name, new Setting(min, max, value, apply, null, null));
+	}
+
+	/**
+	 * Adds a setting which is switched on or off.
+	 *
+	 * @param name Name of the setting, as in the properties file.
+	 * @param value Reads the current value.
+	 * @param apply Applies a new value.
+	 */
+	public void addFlag(String name, BooleanSupplier value, Consumer<Boolean> apply) {
+		settings.put(name, new Setting(0, 0, null, null, value, apply));
+	}
+
+	/**
+	 * @return The current values of all settings by name.
+	 */
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		for (Map.Entry<String, Setting> e : settings.entrySet()) {
+			Setting setting = e.getValue();
+			result.put(e.getKey(), setting.flag != null ? setting.flag.getAsBoolean() : setting.value.getAsLong());
+		}
+		return result;
+	}
+
+	/**
+	 * Changes settings. All values are checked before any is applied, so either all or none are changed.
+	 *
+	 * @param values New values by name, numbers for numeric settings and booleans for flags.
+	 * @return The changed settings with their previous values.
+	 * @throws IllegalArgumentException If a setting is unknown or a value has the wrong type or is out of range.
+	 */
+	public synchronized Map<String, Object> apply(Map<String, ?> values) {
+		for (Map.Entry<String, ?> e : values.entrySet()) {
+			Setting setting = settings.get(e.getKey());
+			if (setting == null) {
+				throw new IllegalArgumentException("Unknown setting " + e.getKey());
+			}
+			Object value = e.getValue();
+			if (setting.flag != null) {
+				if (!(value instanceof Boolean)) {
+					throw new IllegalArgumentException(e.getKey() + " must be true or false");
+				}
+			} else {
+				if (!(value instanceof Number) || ((Number) value).doubleValue() != ((Number) value).longValue()) {
+					throw new IllegalArgumentException(e.getKey() + " must be an integer");
+				}
+				long number = ((Number) value).longValue();
+				if (number < setting.min || number > setting.max) {
+					throw new IllegalArgumentException(
+							e.getKey() + " must be between " + setting.min + " and " + setting.max);
+				}
+			}
+		}
+		Map<String, Object> previous = new LinkedHashMap<>();
+		for (Map.Entry<String, ?> e : values.entrySet()) {
+			Setting setting = settings.get(e.getKey());
+			if (setting.flag != null) {
+				previous.put(e.getKey(), setting.flag.getAsBoolean());
+				setting.applyFlag.accept((Boolean) e.getValue());
+			} else {
+				previous.put(e.getKey(), setting.value.getAsLong());
+				setting.apply.accept(((Number) e.getValue()).longValue());
+			}
+		}
+		return previous;
+	}
+}
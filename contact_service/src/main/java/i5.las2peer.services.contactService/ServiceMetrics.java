@@ -0,0 +1,203 @@
+package i5.las2peer.services.contactService;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Node-local metrics of the contact service. Keeps a latency histogram for every resource method and counters for the
+ * storage and RMI operations the service performs. The collected values can be rendered in the Prometheus text
+ * exposition format.
+ */
+public class ServiceMetrics {
+
+	private static final String PREFIX = "contactservice_";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99, 0.999 };
+
+	private final ConcurrentHashMap<String, LatencyHistogram> endpoints = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, LongAdder>> endpointOperations = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	/**
+	 * Records a finished request.
+	 *
+	 * @param endpoint Name of the resource method, e.g. "ContactResource.getContacts".
+	 * @param status HTTP status code of the response.
+	 * @param nanos Time spent in the request in nanoseconds.
+	 */
+	public void recordRequest(String endpoint, int status, long nanos) {
+		endpoints.computeIfAbsent(endpoint, k -> new LatencyHistogram()).recordNanos(nanos);
+		if (status >= 400) {
+			errors.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * Attributes the operations of a finished request to its endpoint.
+	 *
+	 * @param endpoint Name of the resource method.
+	 * @param counts Number of operations per operation name, as collected by the {@link RequestTrace}.
+	 */
+	public void recordEndpointOperations(String endpoint, Map<String, Long> counts) {
+		if (counts.isEmpty()) {
+			return;
+		}
+		ConcurrentHashMap<String, LongAdder> perEndpoint = endpointOperations.computeIfAbsent(endpoint,
+				k -> new ConcurrentHashMap<>());
+		for (Map.Entry<String, Long> e : counts.entrySet()) {
+			perEndpoint.computeIfAbsent(e.getKey(), k -> new LongAdder()).add(e.getValue());
+		}
+	}
+
+	/**
+	 * Records a storage or RMI operation.
+	 *
+	 * @param operation Name of the operation, e.g. "requestEnvelope".
+	 * @param nanos Time spent in the operation in nanoseconds.
+	 */
+	public void recordOperation(String operation, long nanos) {
+		operations.computeIfAbsent(operation, k -> new LatencyHistogram()).recordNanos(nanos);
+	}
+
+	/**
+	 * Increments a plain event counter.
+	 *
+	 * @param name Name of the counter.
+	 * @param delta Value to add.
+	 */
+	public void increment(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Registers a value which is read whenever the metrics are rendered, e.g. the size of a cache.
+	 *
+	 * @param name Name of the gauge.
+	 * @param value Supplies the current value.
+	 */
+	public void gauge(String name, LongSupplier value) {
+		gauges.put(name, value);
+	}
+
+	/**
+	 * @param name Name of the gauge.
+	 * @return The current value of the gauge or 0 if there is no such gauge.
+	 */
+	public long getGauge(String name) {
+		LongSupplier gauge = gauges.get(name);
+		return gauge == null ? 0 : gauge.getAsLong();
+	}
+
+	/**
+	 * @param endpoint Name of the resource method.
+	 * @return The histogram of the given endpoint or null if it was never called.
+	 */
+	public LatencyHistogram getEndpoint(String endpoint) {
+		return endpoints.get(endpoint);
+	}
+
+	/**
+	 * @param operation Name of the operation.
+	 * @return The histogram of the given operation or null if it was never performed.
+	 */
+	public LatencyHistogram getOperation(String operation) {
+		return operations.get(operation);
+	}
+
+	/**
+	 * @param operation Name of the operation.
+	 * @return How often the given operation was performed.
+	 */
+	public long getOperationCount(String operation) {
+		LatencyHistogram histogram = operations.get(operation);
+		return histogram == null ? 0 : histogram.getCount();
+	}
+
+	/**
+	 * @param name Name of the counter.
+	 * @return The current value of the counter.
+	 */
+	public long getCounter(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Renders all metrics in the Prometheus text exposition format (version 0.0.4).
+	 *
+	 * @return The exposition text.
+	 */
+	public String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		writeSummary(sb, "request_duration_seconds", "Latency of the service's resource methods.", "endpoint",
+				endpoints);
+		sb.append("# HELP ").append(PREFIX).append("request_errors_total Requests answered with status >= 400.\n");
+		sb.append("# TYPE ").append(PREFIX).append("request_errors_total counter\n");
+		for (Map.Entry<String, LongAdder> e : new TreeMap<>(errors).entrySet()) {
+			sb.append(PREFIX).append("request_errors_total{endpoint=\"").append(escape(e.getKey())).append("\"} ")
+					.append(e.getValue().sum()).append('\n');
+		}
+		writeSummary(sb, "operation_duration_seconds", "Latency of storage and RMI operations.", "operation",
+				operations);
+		sb.append("# HELP ").append(PREFIX).append("operations_total Number of storage and RMI operations.\n");
+		sb.append("# TYPE ").append(PREFIX).append("operations_total counter\n");
+		for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(operations).entrySet()) {
+			sb.append(PREFIX).append("operations_total{operation=\"").append(escape(e.getKey())).append("\"} ")
+					.append(e.getValue().getCount()).append('\n');
+		}
+		sb.append("# HELP ").append(PREFIX)
+				.append("endpoint_operations_total Storage and RMI operations performed per endpoint.\n");
+		sb.append("# TYPE ").append(PREFIX).append("endpoint_operations_total counter\n");
+		for (Map.Entry<String, ConcurrentHashMap<String, LongAdder>> e : new TreeMap<>(endpointOperations)
+				.entrySet()) {
+			for (Map.Entry<String, LongAdder> op : new TreeMap<>(e.getValue()).entrySet()) {
+				sb.append(PREFIX).append("endpoint_operations_total{endpoint=\"").append(escape(e.getKey()))
+						.append("\",operation=\"").append(escape(op.getKey())).append("\"} ").append(op.getValue().sum())
+						.append('\n');
+			}
+		}
+		for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+			String name = PREFIX + e.getKey() + "_total";
+			sb.append("# TYPE ").append(name).append(" counter\n");
+			sb.append(name).append(' ').append(e.getValue().sum()).append('\n');
+		}
+		for (Map.Entry<String, LongSupplier> e : new TreeMap<>(gauges).entrySet()) {
+			String name = PREFIX + e.getKey();
+			sb.append("# TYPE ").append(name).append(" gauge\n");
+			sb.append(name).append(' ').append(e.getValue().getAsLong()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static void writeSummary(StringBuilder sb, String name, String help, String label,
+			Map<String, LatencyHistogram> histograms) {
+		String metric = PREFIX + name;
+		sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(metric).append(" summary\n");
+		for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(histograms).entrySet()) {
+			String key = escape(e.getKey());
+			LatencyHistogram h = e.getValue();
+			for (double q : QUANTILES) {
+				sb.append(metric).append('{').append(label).append("=\"").append(key).append("\",quantile=\"")
+						.append(q).append("\"} ").append(seconds(h.percentile(q))).append('\n');
+			}
+			sb.append(metric).append("_sum{").append(label).append("=\"").append(key).append("\"} ")
+					.append(seconds(h.getSum())).append('\n');
+			sb.append(metric).append("_count{").append(label).append("=\"").append(key).append("\"} ")
+					.append(h.getCount()).append('\n');
+		}
+	}
+
+	private static String seconds(long micros) {
+		return Double.toString(micros / 1_000_000.0);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
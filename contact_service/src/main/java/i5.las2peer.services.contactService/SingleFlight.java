@@ -0,0 +1,98 @@
+package i5.las2peer.services.contactService;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent loads of the same key. The first caller of a key performs the load, callers arriving while it
+ * is in flight wait for its result instead of loading themselves. Failures of the shared type, e.g. a missing
+ * envelope, are passed to all waiting callers, so a missing key does not cause a load per caller. After any other
+ * failure, which may be caused by the caller that loaded, the waiting callers fall back to their own load. Waiting is
+ * bounded as well: if the shared load takes longer than the given timeout, the waiting caller loads on its own.
+ *
+ * Results are not cached, a load that finished is never handed to later callers.
+ *
+ * @param <K> Type of the keys.
+ * @param <V> Type of the loaded values.
+ */
+public class SingleFlight<K, V> {
+
+	/**
+	 * Performs the actual load.
+	 *
+	 * @param <V> Type of the loaded value.
+	 */
+	@FunctionalInterface
+	public interface Loader<V> {
+		V load() throws Exception;
+	}
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final ServiceMetrics metrics;
+	private final String name;
+	private final Class<? extends Exception> sharedFailure;
+
+	/**
+	 * @param metrics Metrics to count coalesced calls and fallbacks in.
+	 * @param name Prefix of the counters, e.g. "envelope_fetch".
+	 * @param sharedFailure Type of the failures passed to waiting callers.
+	 */
+	public SingleFlight(ServiceMetrics metrics, String name, Class<? extends Exception> sharedFailure) {
+		this.metrics = metrics;
+		this.name = name;
+		this.sharedFailure = sharedFailure;
+	}
+
+	/**
+	 * Loads the value of a key or joins a load of the same key that is already in flight.
+	 *
+	 * @param key Key to load.
+	 * @param loader Performs the load if no load of the key is in flight, the shared load takes too long or failed
+	 *            with a failure that is not shared.
+	 * @param timeoutMs How long to wait for a shared load before falling back to an own load.
+	 * @return The loaded value.
+	 * @throws Exception If the load failed, also if it was the shared load failing with the shared type.
+	 */
+	public V execute(K key, Loader<V> loader, long timeoutMs) throws Exception {
+		CompletableFuture<V> own = new CompletableFuture<>();
+		CompletableFuture<V> shared = inFlight.putIfAbsent(key, own);
+		if (shared == null) {
+			try {
+				V value = loader.load();
+				own.complete(value);
+				return value;
+			} catch (Exception | Error e) {
+				own.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, own);
+			}
+		}
+		V value;
+		try {
+			value = shared.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (sharedFailure.isInstance(e.getCause())) {
+				metrics.increment(name + "_shared_failures", 1);
+				throw (Exception) e.getCause();
+			}
+			metrics.increment(name + "_fallbacks", 1);
+			return loader.load();
+		} catch (TimeoutException e) {
+			metrics.increment(name + "_fallbacks", 1);
+			return loader.load();
+		}
+		metrics.increment(name + "_coalesced", 1);
+		return value;
+	}
+
+	/**
+	 * @return Number of keys currently being loaded.
+	 */
+	public int inFlight() {
+		return inFlight.size();
+	}
+}
@@ -0,0 +1,62 @@
+package i5.las2peer.services.contactService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+/**
+ * Bounded in-memory log of the most recent requests that took longer than the configured threshold. Each entry keeps
+ * the per-phase breakdown of the request so the cause of the delay can be seen without reproducing it.
+ */
+public class SlowRequestLog {
+
+	private final int capacity;
+	private final ArrayDeque<JSONObject> entries;
+
+	/**
+	 * @param capacity Maximum number of entries kept. Older entries are dropped first.
+	 */
+	public SlowRequestLog(int capacity) {
+		this.capacity = capacity;
+		this.entries = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * Adds a slow request to the log.
+	 *
+	 * @param endpoint Name of the resource method.
+	 * @param status HTTP status code of the response.
+	 * @param busyNanos Duration of the request in nanoseconds, without the time it waited on purpose.
+	 * @param timing Per-phase breakdown in Server-Timing syntax.
+	 */
+	public void add(String endpoint, int status, long busyNanos, String timing) {
+		JSONObject entry = new JSONObject();
+		entry.put("time", System.currentTimeMillis());
+		entry.put("endpoint", endpoint);
+		entry.put("status", status);
+		entry.put("durationMs", busyNanos / 1_000_000);
+		entry.put("timing", timing);
+		synchronized (entries) {
+			if (entries.size() == capacity) {
+				entries.pollFirst();
+			}
+			entries.addLast(entry);
+		}
+	}
+
+	/**
+	 * @return The logged requests, oldest first.
+	 */
+	public JSONArray toJSON() {
+		List<JSONObject> copy;
+		synchronized (entries) {
+			copy = new ArrayList<>(entries);
+		}
+		JSONArray result = new JSONArray();
+		result.addAll(copy);
+		return result;
+	}
+}
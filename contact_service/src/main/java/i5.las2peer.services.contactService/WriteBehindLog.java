@@ -0,0 +1,215 @@
+package i5.las2peer.services.contactService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import i5.las2peer.logging.L2pLogger;
+
+/**
+ * Write-ahead log of the mutations of user lists in envelopes, used in write-behind mode. A mutation is acknowledged
+ * once it is appended to the log and the log is forced to disk. The mutations are applied to their envelopes in the
+ * background, all mutations of an envelope pending at that time in one write. Failed writes are retried with
+ * exponential backoff until they succeed, the mutations stay pending in the meantime.
+ *
+ * The log is kept by a {@link DurableQueue}: every line holds one mutation and its checksum, so a line torn by a crash
+ * is dropped when the log is replayed by {@link #open()}. Applied mutations are removed from the log by rewriting it.
+ */
+public class WriteBehindLog {
+
+	private static final L2pLogger logger = L2pLogger.getInstance(WriteBehindLog.class.getName());
+
+	/**
+	 * Adds an agent to the user list.
+	 */
+	public static final String ADD = "add";
+
+	/**
+	 * Removes an agent from the user list.
+	 */
+	public static final String REMOVE = "remove";
+
+	/**
+	 * A logged mutation.
+	 */
+	public static class Entry {
+		private final long sequence;
+		private final String envelopeId;
+		private final String operation;
+		private final String agentId;
+
+		Entry(long sequence, String envelopeId, String operation, String agentId) {
+			this.sequence = sequence;
+			this.envelopeId = envelopeId;
+			this.operation = operation;
+			this.agentId = agentId;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getEnvelopeId() {
+			return envelopeId;
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public String getAgentId() {
+			return agentId;
+		}
+	}
+
+	/**
+	 * Applies mutations to an envelope.
+	 */
+	public interface Applier {
+		/**
+		 * Applies mutations to a user list and stores its envelope.
+		 *
+		 * @param envelopeId Identifier of the envelope.
+		 * @param entries The mutations in the order they were logged.
+		 * @throws Exception If the envelope could not be stored.
+		 */
+		void apply(String envelopeId, List<Entry> entries) throws Exception;
+	}
+
+	private final DurableQueue<Entry> queue;
+	private final Path file;
+	private final ServiceMetrics metrics;
+	private final AtomicLong sequence = new AtomicLong();
+	private final DurableQueue.Format<Entry> format = new DurableQueue.Format<Entry>() {
+		@Override
+		public String key(Entry entry) {
+			return entry.getEnvelopeId();
+		}
+
+		@Override
+		public String encode(Entry entry) {
+			return entry.sequence + "\t" + entry.envelopeId + "\t" + entry.operation + "\t" + entry.agentId;
+		}
+
+		@Override
+		public Entry decode(String data) {
+			String[] fields = data.split("\t", -1);
+			if (fields.length != 4 || !(ADD.equals(fields[2]) || REMOVE.equals(fields[2]))) {
+				return null;
+			}
+			try {
+				Entry entry = new Entry(Long.parseLong(fields[0]), fields[1], fields[2], fields[3]);
+				// appends after a replay continue the sequence
+				sequence.accumulateAndGet(entry.getSequence(), Math::max);
+				return entry;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	};
+
+	/**
+	 * @param file The log file.
+	 * @param metrics Metrics to count appends, writes and retries in.
+	 * @param applier Applies the mutations to the envelopes.
+	 * @param delayMs Time to collect mutations of an envelope before it is written.
+	 * @param retryMs Delay before the first retry of a failed write.
+	 * @param maxRetryMs Maximum delay between retries.
+	 */
+	public WriteBehindLog(Path file, ServiceMetrics metrics, Applier applier, long delayMs, long retryMs,
+			long maxRetryMs) {
+		this.file = file;
+		this.metrics = metrics;
+		this.queue = new DurableQueue<>("write_behind", file, format, applier::apply, metrics, delayMs, retryMs,
+				maxRetryMs);
+	}
+
+	/**
+	 * Opens the log and queues the mutations it holds. They are written once {@link #resume(Executor)} is called.
+	 *
+	 * @return Number of replayed mutations.
+	 * @throws IOException If the log cannot be read or written.
+	 */
+	public int open() throws IOException {
+		int replayed = queue.open();
+		metrics.increment("write_behind_replayed", replayed);
+		return replayed;
+	}
+
+	/**
+	 * Starts writing the mutations replayed by {@link #open()}. Only the first call has an effect.
+	 *
+	 * @param executor Executor providing the context the writes need.
+	 */
+	public void resume(Executor executor) {
+		queue.resume(executor);
+	}
+
+	/**
+	 * Logs a mutation and forces it to disk. The mutation is written to its envelope in the background.
+	 *
+	 * @param envelopeId Identifier of the envelope.
+	 * @param operation {@link #ADD} or {@link #REMOVE}.
+	 * @param agentId Id of the added or removed agent.
+	 * @param executor Executor providing the context the writes need.
+	 * @throws IOException If the mutation could not be logged, it is not applied then.
+	 */
+	public void append(String envelopeId, String operation, String agentId, Executor executor) throws IOException {
+		queue.add(new Entry(sequence.incrementAndGet(), envelopeId, operation, agentId), executor);
+		metrics.increment("write_behind_appends", 1);
+	}
+
+	/**
+	 * @param envelopeId Identifier of the envelope.
+	 * @return Mutations not yet written to the envelope, in the order they were logged.
+	 */
+	public List<Entry> getPending(String envelopeId) {
+		return queue.getPending(envelopeId);
+	}
+
+	/**
+	 * Applies the pending mutations of an envelope to a user list read from it.
+	 *
+	 * @param envelopeId Identifier of the envelope.
+	 * @param userList The user list, it is modified.
+	 */
+	public void applyPending(String envelopeId, Set<String> userList) {
+		apply(getPending(envelopeId), userList);
+	}
+
+	/**
+	 * Applies mutations to a user list.
+	 *
+	 * @param entries The mutations in the order they were logged.
+	 * @param userList The user list, it is modified.
+	 */
+	public static void apply(List<Entry> entries, Set<String> userList) {
+		for (Entry entry : entries) {
+			if (ADD.equals(entry.getOperation())) {
+				userList.add(entry.getAgentId());
+			} else {
+				userList.remove(entry.getAgentId());
+			}
+		}
+	}
+
+	/**
+	 * @return Number of mutations not yet written.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops writing and closes the log. Pending mutations are replayed on the next start.
+	 */
+	public void close() {
+		int pending = queue.close();
+		if (pending > 0) {
+			logger.warning(pending + " mutations were not written yet, they are replayed from " + file);
+		}
+	}
+}
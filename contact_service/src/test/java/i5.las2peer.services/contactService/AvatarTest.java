@@ -0,0 +1,87 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class AvatarTest {
+
+	@Test
+	public void testDataUrl() {
+		byte[] data = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3, 4 };
+		Avatar avatar = Avatar.fromDataUrl("data:image/png;base64," + Base64.getEncoder().encodeToString(data));
+		assertNotNull(avatar);
+		assertEquals("image/png", avatar.getMediaType());
+		assertArrayEquals(data, avatar.getData());
+		assertEquals(avatar.getHash(), Avatar.hashOf(avatar.getReference()));
+
+		assertNull(Avatar.fromDataUrl("https://example.org/me.png"));
+		assertNull(Avatar.fromDataUrl("data:text/plain;base64,AAAA"));
+		assertNull(Avatar.hashOf("sha256:not-a-hash"));
+	}
+
+	@Test
+	public void testMediaTypeIsDetectedFromBytes() {
+		byte[] gif = "GIF89a....".getBytes(StandardCharsets.US_ASCII);
+		byte[] webp = "RIFF....WEBPVP8 ".getBytes(StandardCharsets.US_ASCII);
+		byte[] jpeg = { (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0 };
+		byte[] svg = "<svg xmlns=\"http://www.w3.org/2000/svg\"/>".getBytes(StandardCharsets.US_ASCII);
+		assertEquals("image/gif", Avatar.detectMediaType(gif));
+		assertEquals("image/webp", Avatar.detectMediaType(webp));
+		assertEquals("image/jpeg", Avatar.detectMediaType(jpeg));
+		assertNull(Avatar.detectMediaType(svg));
+
+		// the declared type is ignored
+		assertEquals("image/gif",
+				Avatar.fromDataUrl("data:image/png;base64," + Base64.getEncoder().encodeToString(gif)).getMediaType());
+		assertNull(Avatar.fromDataUrl("data:image/svg+xml;base64," + Base64.getEncoder().encodeToString(svg)));
+		assertNull(Avatar.fromDataUrl("data:image/png;base64," + Base64.getEncoder().encodeToString(svg)));
+	}
+
+	@Test
+	public void testThumbnail() throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB), "png", png);
+		Avatar avatar = new Avatar("image/png", png.toByteArray());
+		avatar.createThumbnail(50);
+		BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(avatar.getThumbnail()));
+		assertEquals(50, thumbnail.getWidth());
+		assertEquals(25, thumbnail.getHeight());
+	}
+
+	@Test
+	public void testHugeImageGetsNoThumbnail() throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(5000, 4000, BufferedImage.TYPE_BYTE_BINARY), "png", png);
+		Avatar avatar = new Avatar("image/png", png.toByteArray());
+		avatar.createThumbnail(50);
+		assertNull(avatar.getThumbnail());
+	}
+
+	@Test
+	public void testCacheEvictsLeastRecentlyUsed() {
+		Avatar a = new Avatar("image/png", new byte[40]);
+		Avatar b = new Avatar("image/png", new byte[40]);
+		Avatar c = new Avatar("image/png", new byte[40]);
+		AvatarCache cache = new AvatarCache(a.getSize() * 2);
+		cache.put("a", a);
+		cache.put("b", b);
+		cache.get("a");
+		cache.put("c", c);
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(a.getSize() * 2, cache.getBytes());
+	}
+}
@@ -0,0 +1,69 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import net.minidev.json.JSONObject;
+
+public class CborTest {
+
+	@Test
+	public void testEncode() {
+		// examples from RFC 8949, appendix A
+		assertArrayEquals(bytes(0x00), Cbor.encode(0));
+		assertArrayEquals(bytes(0x18, 0x64), Cbor.encode(100));
+		assertArrayEquals(bytes(0x19, 0x03, 0xe8), Cbor.encode(1000));
+		assertArrayEquals(bytes(0x20), Cbor.encode(-1));
+		assertArrayEquals(bytes(0x38, 0x63), Cbor.encode(-100));
+		assertArrayEquals(bytes(0xf5), Cbor.encode(true));
+		assertArrayEquals(bytes(0xf6), Cbor.encode(null));
+		assertArrayEquals(bytes(0x64, 0x49, 0x45, 0x54, 0x46), Cbor.encode("IETF"));
+		assertArrayEquals(bytes(0x83, 0x01, 0x02, 0x03), Cbor.encode(Arrays.asList(1, 2, 3)));
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", 1);
+		map.put("b", Arrays.asList(2, 3));
+		assertArrayEquals(bytes(0xa2, 0x61, 0x61, 0x01, 0x61, 0x62, 0x82, 0x02, 0x03), Cbor.encode(map));
+	}
+
+	@Test
+	public void testWriterAcceptsErrorMessages() throws Exception {
+		CborBodyWriter writer = new CborBodyWriter();
+		MediaType cbor = new MediaType("application", "cbor");
+		assertTrue(writer.isWriteable(JSONObject.class, JSONObject.class, new Annotation[0], cbor));
+		assertTrue(writer.isWriteable(String.class, String.class, new Annotation[0], cbor));
+		assertFalse(writer.isWriteable(byte[].class, byte[].class, new Annotation[0], cbor));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeTo("IETF", String.class, String.class, new Annotation[0], cbor, null, out);
+		assertArrayEquals(bytes(0x64, 0x49, 0x45, 0x54, 0x46), out.toByteArray());
+	}
+
+	@Test
+	public void testNegotiateEncoding() {
+		assertEquals("gzip", CompressionInterceptor.negotiate("deflate, gzip;q=0.5"));
+		assertEquals("deflate", CompressionInterceptor.negotiate("gzip;q=0, deflate"));
+		assertEquals("gzip", CompressionInterceptor.negotiate("x-gzip"));
+		assertNull(CompressionInterceptor.negotiate("br, identity"));
+		assertNull(CompressionInterceptor.negotiate(null));
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,77 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+import org.junit.Test;
+
+public class ContactContainerTest {
+
+	// a container with the users a1, b2 and the group team -> g3, written before compression was added
+	private static final String LEGACY = "rO0ABXNyADRpNS5sYXMycGVlci5zZXJ2aWNlcy5jb250YWN0U2VydmljZS5Db250YWN0Q29udGFpbmVy"
+			+ "AAAAAAAAAAECAAJMAAZncm91cHN0ABNMamF2YS91dGlsL0hhc2hNYXA7TAAIdXNlckxpc3R0ABNMamF2YS91dGlsL0hhc2hTZXQ7eHBz"
+			+ "cgARamF2YS51dGlsLkhhc2hNYXAFB9rBwxZg0QMAAkYACmxvYWRGYWN0b3JJAAl0aHJlc2hvbGR4cD9AAAAAAAAMdwgAAAAQAAAAAXQA"
+			+ "BHRlYW10AAJnM3hzcgARamF2YS51dGlsLkhhc2hTZXS6RIWVlri3NAMAAHhwdwwAAAAQP0AAAAAAAAJ0AAJhMXQAAmIyeA==";
+
+	@Test
+	public void testLegacyContainerIsRead() throws Exception {
+		ContactContainer cc = read(Base64.getDecoder().decode(LEGACY));
+		assertEquals(2, cc.getUserList().size());
+		assertTrue(cc.getUserList().contains("a1"));
+		assertEquals("g3", cc.getGroupId("team"));
+	}
+
+	@Test
+	public void testSmallContainerIsNotCompressed() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		ContactContainer cc = new ContactContainer();
+		cc.compressWith(1024, metrics);
+		cc.addContact("a1");
+		cc.addGroup("team", "g3");
+		ContactContainer copy = read(write(cc));
+		assertEquals(cc.getUserList(), copy.getUserList());
+		assertEquals(cc.getGroups(), copy.getGroups());
+		assertEquals(0, metrics.getCounter("container_compressed"));
+	}
+
+	@Test
+	public void testLargeContainerIsCompressed() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		ContactContainer cc = new ContactContainer();
+		for (int i = 0; i < 2000; i++) {
+			cc.addContact(String.format("%0128x", i));
+			cc.addGroup("group" + i, String.format("%0128x", i + 2000));
+		}
+		int plain = write(cc).length;
+		cc.compressWith(1024, metrics);
+		byte[] compressed = write(cc);
+		assertTrue(compressed.length * 4 < plain);
+		assertEquals(1, metrics.getCounter("container_compressed"));
+
+		ContactContainer copy = read(compressed);
+		assertEquals(cc.getUserList(), copy.getUserList());
+		assertEquals(cc.getGroups(), copy.getGroups());
+		assertTrue(copy.takeDecompressNanos() > 0);
+		assertEquals(0, copy.takeDecompressNanos());
+	}
+
+	private static byte[] write(ContactContainer cc) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(cc);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static ContactContainer read(byte[] bytes) throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (ContactContainer) in.readObject();
+		}
+	}
+}
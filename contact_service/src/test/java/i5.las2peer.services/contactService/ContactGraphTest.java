@@ -0,0 +1,49 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ContactGraphTest {
+
+	@Test
+	public void testRemovedContactIsReleased() {
+		ContactGraph graph = new ContactGraph();
+		graph.setContacts("a", Arrays.asList("b", "c"));
+		graph.setContacts("d", Arrays.asList("c"));
+		assertEquals(4, graph.getAgentCount());
+		graph.removeContact("a", "b");
+		assertEquals(3, graph.getAgentCount());
+		// c is still in the list of d
+		graph.setContacts("a", Collections.emptyList());
+		assertEquals(3, graph.getAgentCount());
+		graph.setContacts("d", Collections.emptyList());
+		assertEquals(2, graph.getAgentCount());
+		assertEquals(Collections.emptyList(), graph.getContacts("a"));
+		assertNull(graph.getContacts("c"));
+	}
+
+	@Test
+	public void testReleasedIdsAreReused() {
+		ContactGraph graph = new ContactGraph();
+		graph.setContacts("a", Arrays.asList("b"));
+		graph.setGroups("a", Arrays.asList("g"));
+		for (int i = 0; i < 1000; i++) {
+			graph.addContact("a", "x" + i);
+			graph.addGroup("a", "h" + i);
+			graph.removeContact("a", "x" + i);
+			graph.removeGroup("a", "h" + i);
+		}
+		assertEquals(3, graph.getAgentCount());
+		assertEquals(Arrays.asList("b"), graph.getContacts("a"));
+		assertEquals(Arrays.asList("g"), graph.getGroups("a"));
+		// a new id takes a released int
+		graph.addContact("a", "y");
+		graph.setContacts("b", Arrays.asList("y"));
+		assertEquals(Arrays.asList("y"), graph.getMutualContacts("a", "b"));
+	}
+}
@@ -0,0 +1,108 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * Creates the service the way las2peer does, with initResources() running in the super constructor, and checks that
+ * the settings and the helpers are wired to the service's metrics.
+ */
+public class ContactServiceSetupTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSettingsAreLoaded() {
+		ContactService service = new ContactService();
+		JSONObject settings = service.getSettings().toJSON();
+		assertEquals(10000L, settings.get("profileCacheSize"));
+		// older nodes read compressed containers as empty
+		assertEquals(0L, settings.get("containerCompressionThresholdBytes"));
+		assertEquals(1024, service.getEnvelopeLocks().getStripes());
+		String metrics = service.getMetrics().toPrometheus();
+		assertTrue(metrics.contains("contactservice_profile_cache_entries 0"));
+		assertTrue(metrics.contains("contactservice_group_list_pending 0"));
+		assertTrue(metrics.contains("contactservice_event_subscriptions 0"));
+	}
+
+	@Test
+	public void testTokenBurstAdmitsMostExpensiveMethod() {
+		ContactService service = new ContactService();
+		// getSuggestions costs 10 tokens
+		try {
+			service.getSettings().apply(Collections.singletonMap("agentTokenBurst", 9));
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertEquals(100L, service.getSettings().toJSON().get("agentTokenBurst"));
+		}
+		service.getSettings().apply(Collections.singletonMap("agentTokenBurst", 10));
+	}
+
+	@Test
+	public void testEnvelopeLocksUseServiceMetrics() throws Exception {
+		ContactService service = new ContactService();
+		EnvelopeLocks locks = service.getEnvelopeLocks();
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> holder = executor.submit(() -> {
+			Lock lock = locks.lock("contacts_a");
+			try {
+				held.countDown();
+				release.await();
+			} finally {
+				lock.unlock();
+			}
+			return null;
+		});
+		assertTrue(held.await(5, TimeUnit.SECONDS));
+		Future<?> waiter = executor.submit(() -> locks.lock("contacts_a").unlock());
+		while (service.getMetrics().getCounter("envelope_lock_contended") == 0) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		holder.get(5, TimeUnit.SECONDS);
+		waiter.get(5, TimeUnit.SECONDS);
+		assertEquals(1, service.getMetrics().getOperationCount("envelopeLockWait"));
+	}
+
+	@Test
+	public void testContainerCompressionUsesServiceSettings() throws Exception {
+		ContactService service = new ContactService();
+		service.getSettings().apply(Collections.singletonMap("containerCompressionThresholdBytes", 1));
+		// a second service on the same node keeps its own threshold
+		ContactService other = new ContactService();
+		ContactContainer cc = new ContactContainer();
+		cc.addContact("a1");
+		service.compressContainer(cc);
+		try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+			out.writeObject(cc);
+		}
+		other.compressContainer(cc);
+		try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+			out.writeObject(cc);
+		}
+		assertEquals(1, service.getMetrics().getCounter("container_compressed"));
+		assertEquals(0, other.getMetrics().getCounter("container_compressed"));
+	}
+}
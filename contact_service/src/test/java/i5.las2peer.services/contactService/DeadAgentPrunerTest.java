@@ -0,0 +1,58 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class DeadAgentPrunerTest {
+
+	@Test
+	public void testIdIsDeadAfterTwoPassesOneIntervalApart() throws Exception {
+		DeadAgentPruner pruner = new DeadAgentPruner(new ServiceMetrics());
+		assertFalse(pruner.confirmDead("a", 100));
+		// a second pass within the interval does not confirm
+		assertFalse(pruner.confirmDead("a", 100));
+		assertEquals(1, pruner.getSuspects());
+		Thread.sleep(150);
+		assertTrue(pruner.confirmDead("a", 100));
+		assertEquals(0, pruner.getSuspects());
+	}
+
+	@Test
+	public void testFoundIdIsNoLongerSuspected() throws Exception {
+		DeadAgentPruner pruner = new DeadAgentPruner(new ServiceMetrics());
+		assertFalse(pruner.confirmDead("a", 0));
+		pruner.found("a");
+		assertFalse(pruner.confirmDead("a", 0));
+		assertTrue(pruner.confirmDead("a", 0));
+	}
+
+	@Test
+	public void testSuspectsAreBounded() throws Exception {
+		DeadAgentPruner pruner = new DeadAgentPruner(new ServiceMetrics());
+		for (int i = 0; i < DeadAgentPruner.MAX_TRACKED + 10; i++) {
+			pruner.confirmDead("agent" + i, 60000);
+		}
+		assertEquals(DeadAgentPruner.MAX_TRACKED, pruner.getSuspects());
+		Thread.sleep(20);
+		// old suspects make room once they are older than the interval
+		pruner.confirmDead("late", 10);
+		assertEquals(1, pruner.getSuspects());
+	}
+
+	@Test
+	public void testEnvelopesAreBounded() throws Exception {
+		DeadAgentPruner pruner = new DeadAgentPruner(new ServiceMetrics());
+		for (int i = 0; i < DeadAgentPruner.MAX_TRACKED; i++) {
+			assertTrue(pruner.submit("envelope" + i, Collections.singleton("a"), Runnable::run, (id, c) -> 0, 60000,
+					10));
+		}
+		assertFalse(pruner.submit("more", Collections.singleton("a"), Runnable::run, (id, c) -> 0, 60000, 10));
+		Thread.sleep(20);
+		assertTrue(pruner.submit("more", Collections.singleton("a"), Runnable::run, (id, c) -> 0, 10, 10));
+	}
+}
@@ -0,0 +1,121 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EnvelopeLocksTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSameEnvelopeIsSerialized() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		EnvelopeLocks locks = new EnvelopeLocks(64, metrics);
+		int[] value = new int[1];
+		List<Future<?>> writers = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			writers.add(executor.submit(() -> {
+				for (int j = 0; j < 1000; j++) {
+					Lock lock = locks.lock("contacts_a");
+					try {
+						// read-modify-write
+						int read = value[0];
+						Thread.yield();
+						value[0] = read + 1;
+					} finally {
+						lock.unlock();
+					}
+				}
+			}));
+		}
+		for (Future<?> writer : writers) {
+			writer.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(8000, value[0]);
+		assertTrue(metrics.getCounter("envelope_lock_contended") > 0);
+		assertEquals(metrics.getCounter("envelope_lock_contended"), metrics.getOperationCount("envelopeLockWait"));
+	}
+
+	@Test
+	public void testStripesAreRoundedAndBounded() {
+		ServiceMetrics metrics = new ServiceMetrics();
+		assertEquals(1, new EnvelopeLocks(0, metrics).getStripes());
+		assertEquals(1024, new EnvelopeLocks(1000, metrics).getStripes());
+		assertEquals(EnvelopeLocks.MAX_STRIPES, new EnvelopeLocks(100000, metrics).getStripes());
+		assertEquals(EnvelopeLocks.MAX_STRIPES, new EnvelopeLocks(Integer.MAX_VALUE, metrics).getStripes());
+	}
+
+	@Test
+	public void testOtherEnvelopesDoNotWait() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		EnvelopeLocks locks = new EnvelopeLocks(1024, metrics);
+		assertEquals(1024, locks.getStripes());
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> holder = executor.submit(() -> {
+			Lock lock = locks.lock("contacts_a");
+			try {
+				held.countDown();
+				release.await();
+			} finally {
+				lock.unlock();
+			}
+			return null;
+		});
+		assertTrue(held.await(5, TimeUnit.SECONDS));
+		Future<?> other = executor.submit(() -> locks.lock("contacts_b").unlock());
+		other.get(5, TimeUnit.SECONDS);
+		release.countDown();
+		holder.get(5, TimeUnit.SECONDS);
+		assertEquals(0, metrics.getCounter("envelope_lock_contended"));
+	}
+
+	@Test
+	public void testFailedBookkeepingDoesNotLeakLock() throws Exception {
+		// without metrics every wait fails
+		EnvelopeLocks locks = new EnvelopeLocks(1, null);
+		CountDownLatch held = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> holder = executor.submit(() -> {
+			Lock lock = locks.lock("contacts_a");
+			try {
+				held.countDown();
+				release.await();
+			} finally {
+				lock.unlock();
+			}
+			return null;
+		});
+		assertTrue(held.await(5, TimeUnit.SECONDS));
+		Future<?> waiter = executor.submit(() -> locks.lock("contacts_a"));
+		try {
+			waiter.get(5, TimeUnit.SECONDS);
+			fail("Expected the wait to fail");
+		} catch (ExecutionException e) {
+			// expected
+		}
+		release.countDown();
+		holder.get(5, TimeUnit.SECONDS);
+		Future<?> next = executor.submit(() -> locks.lock("contacts_b").unlock());
+		next.get(5, TimeUnit.SECONDS);
+	}
+}
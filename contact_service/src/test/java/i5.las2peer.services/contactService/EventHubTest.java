@@ -0,0 +1,30 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventHubTest {
+
+	@Test
+	public void testSubscriptionsPerAgentAreCapped() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		EventHub hub = new EventHub(metrics, 10, 60000, 0, 3, 1000);
+		EventHub.Subscription first = hub.subscribe("a", null);
+		EventHub.Subscription other = hub.subscribe("b", null);
+		Thread.sleep(5);
+		// reconnects without Last-Event-ID
+		for (int i = 0; i < 9; i++) {
+			hub.subscribe("a", null);
+		}
+		assertEquals(4, hub.size());
+		assertEquals(7, metrics.getCounter("event_subscriptions_evicted"));
+		assertTrue(metrics.toPrometheus().contains("contactservice_event_subscriptions_evicted_total 7"));
+
+		// the oldest subscription was evicted, its client has to resync
+		String events = hub.poll(hub.subscribe("a", first.getId() + ":0"), 0);
+		assertTrue(events.contains("event: resync"));
+		assertEquals(other, hub.subscribe("b", other.getId() + ":0"));
+	}
+}
@@ -0,0 +1,127 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GroupListUpdaterTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testFailedWriteIsRetried() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		Map<String, String> stored = new ConcurrentHashMap<>();
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch written = new CountDownLatch(1);
+		GroupListUpdater updater = new GroupListUpdater(metrics, (envelopeId, groups) -> {
+			if (attempts.incrementAndGet() < 3) {
+				throw new Exception("storage not available");
+			}
+			stored.putAll(groups);
+			written.countDown();
+		}, 10, 100);
+
+		updater.add("groups", "a", "id-a", executor);
+		assertEquals("id-a", updater.getPending("groups").get("a"));
+		assertTrue(written.await(5, TimeUnit.SECONDS));
+		assertEquals("id-a", stored.get("a"));
+		assertEquals(2, metrics.getCounter("group_list_retries"));
+		waitUntilEmpty(updater);
+		updater.shutdown();
+	}
+
+	@Test
+	public void testGroupsAddedDuringWriteAreBatched() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		Map<String, String> stored = new ConcurrentHashMap<>();
+		CountDownLatch firstWrite = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		GroupListUpdater updater = new GroupListUpdater(metrics, (envelopeId, groups) -> {
+			firstWrite.countDown();
+			release.await();
+			stored.putAll(groups);
+		}, 10, 100);
+
+		updater.add("groups", "a", "id-a", executor);
+		assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+		updater.add("groups", "b", "id-b", executor);
+		updater.add("groups", "c", "id-c", executor);
+		release.countDown();
+		waitUntilEmpty(updater);
+		assertEquals(3, stored.size());
+		assertEquals(2, metrics.getCounter("group_list_writes"));
+	}
+
+	@Test
+	public void testWriteContinuesAfterFailedBookkeeping() throws Exception {
+		// without metrics every flush fails after its write
+		Map<String, String> stored = new ConcurrentHashMap<>();
+		GroupListUpdater updater = new GroupListUpdater(null, (envelopeId, groups) -> stored.putAll(groups), 10,
+				100);
+		updater.add("groups", "a", "id-a", executor);
+		waitUntilEmpty(updater);
+		updater.add("groups", "b", "id-b", executor);
+		waitUntilEmpty(updater);
+		assertEquals("id-b", stored.get("b"));
+	}
+
+	@Test
+	public void testPendingGroupsSurviveRestart() throws Exception {
+		Path dir = Files.createTempDirectory("group-list");
+		Path file = dir.resolve("pending");
+		try {
+			GroupListUpdater stopped = new GroupListUpdater(new ServiceMetrics(), (envelopeId, groups) -> {
+				throw new Exception("storage not available");
+			}, 60000, 60000, file);
+			assertEquals(0, stopped.open());
+			stopped.add("groups_1", "a\tb", "id-a", executor);
+			stopped.shutdown();
+
+			Map<String, String> stored = new ConcurrentHashMap<>();
+			GroupListUpdater updater = new GroupListUpdater(new ServiceMetrics(),
+					(envelopeId, groups) -> stored.putAll(groups), 10, 100, file);
+			assertEquals(1, updater.open());
+			assertEquals("id-a", updater.getPending("groups_1").get("a\tb"));
+			updater.resume(executor);
+			waitUntilEmpty(updater);
+			assertEquals("id-a", stored.get("a\tb"));
+			// the file is rewritten after the write
+			long deadline = System.currentTimeMillis() + 5000;
+			while (Files.size(file) > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, new GroupListUpdater(new ServiceMetrics(), (envelopeId, groups) -> {
+			}, 10, 100, file).open());
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(dir.resolve("pending.tmp"));
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	private static void waitUntilEmpty(GroupListUpdater updater) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (updater.size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, updater.size());
+	}
+}
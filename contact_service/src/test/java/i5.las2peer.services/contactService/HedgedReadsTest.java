@@ -0,0 +1,76 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HedgedReadsTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSlowReadIsHedged() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		HedgedReads hedged = new HedgedReads(metrics);
+		AtomicInteger attempts = new AtomicInteger();
+		String value = hedged.read(() -> {
+			if (attempts.incrementAndGet() == 1) {
+				Thread.sleep(2000);
+				return "slow";
+			}
+			return "fast";
+		}, executor, TimeUnit.MILLISECONDS.toNanos(50), 5000, 100);
+		assertEquals("fast", value);
+		assertEquals(1, metrics.getCounter("hedges_sent"));
+		assertEquals(1, metrics.getCounter("hedges_won"));
+	}
+
+	@Test
+	public void testFastReadIsNotHedged() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		HedgedReads hedged = new HedgedReads(metrics);
+		assertEquals("value", hedged.read(() -> "value", executor, TimeUnit.MILLISECONDS.toNanos(500), 5000, 100));
+		assertEquals(0, metrics.getCounter("hedges_sent"));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		HedgedReads hedged = new HedgedReads(metrics);
+		try {
+			hedged.read(() -> {
+				Thread.sleep(2000);
+				return "late";
+			}, executor, 0, 100, 100);
+			fail("read should time out");
+		} catch (TimeoutException e) {
+			assertEquals(1, metrics.getCounter("read_timeouts"));
+		}
+	}
+
+	@Test
+	public void testFailureOfOnlyAttempt() throws Exception {
+		HedgedReads hedged = new HedgedReads(new ServiceMetrics());
+		try {
+			hedged.read(() -> {
+				throw new IllegalStateException("not found");
+			}, executor, TimeUnit.MILLISECONDS.toNanos(500), 5000, 100);
+			fail("read should fail");
+		} catch (IllegalStateException e) {
+			assertEquals("not found", e.getMessage());
+		}
+	}
+}
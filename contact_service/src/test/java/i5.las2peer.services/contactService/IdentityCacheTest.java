@@ -0,0 +1,68 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdentityCacheTest {
+
+	private static final long TTL = 60000;
+
+	private Path dir;
+
+	@Before
+	public void createDirectory() throws Exception {
+		dir = Files.createTempDirectory("identitycache");
+	}
+
+	@After
+	public void deleteDirectory() throws Exception {
+		Files.deleteIfExists(dir.resolve("identities.bin"));
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		IdentityCache cache = new IdentityCache(100);
+		cache.put("id1", "adam", TTL);
+		cache.put("id2", "\u00e4bc", TTL);
+		Path file = dir.resolve("identities.bin");
+		cache.save(file);
+		assertFalse(cache.isDirty());
+
+		IdentityCache loaded = new IdentityCache(100);
+		assertEquals(2, loaded.load(file, TTL));
+		assertEquals("adam", loaded.getLoginName("id1", TTL));
+		assertEquals("id2", loaded.getId("\u00e4bc", TTL));
+		assertFalse(loaded.isDirty());
+	}
+
+	@Test
+	public void testCorruptFileIsDiscarded() throws Exception {
+		IdentityCache cache = new IdentityCache(100);
+		cache.put("id1", "adam", TTL);
+		Path file = dir.resolve("identities.bin");
+		cache.save(file);
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.seek(raf.length() - 1);
+			raf.write('x');
+		}
+
+		IdentityCache loaded = new IdentityCache(100);
+		assertEquals(-1, loaded.load(file, TTL));
+		assertNull(loaded.getLoginName("id1", TTL));
+	}
+
+	@Test
+	public void testMissingFileIsEmpty() throws Exception {
+		assertEquals(0, new IdentityCache(100).load(dir.resolve("identities.bin"), TTL));
+	}
+}
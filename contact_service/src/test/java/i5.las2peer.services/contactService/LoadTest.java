@@ -0,0 +1,267 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import i5.las2peer.api.p2p.ServiceNameVersion;
+import i5.las2peer.connectors.webConnector.WebConnector;
+import i5.las2peer.connectors.webConnector.client.ClientResponse;
+import i5.las2peer.connectors.webConnector.client.MiniClient;
+import i5.las2peer.p2p.PastryNodeImpl;
+import i5.las2peer.persistency.SharedStorage.STORAGE_MODE;
+import i5.las2peer.security.ServiceAgentImpl;
+import i5.las2peer.security.UserAgentImpl;
+import i5.las2peer.testing.TestSuite;
+
+/**
+ * Multi-node load test. Starts several local las2peer nodes running the contact service, registers synthetic users
+ * and runs a mixed workload (contacts, groups, address book, user information) at a fixed request rate. Reports
+ * throughput, p50/p99 latency and the storage operations per endpoint.
+ *
+ * Not part of the regular test run. Start it with <code>./gradlew loadTest</code> and tune it with the system
+ * properties <code>loadtest.nodes</code>, <code>loadtest.users</code>, <code>loadtest.groups</code>,
+ * <code>loadtest.rate</code> (requests per second), <code>loadtest.duration</code> (seconds) and
+ * <code>loadtest.threads</code>.
+ */
+public class LoadTest {
+
+	private static final String MAIN_PATH = "contactservice/";
+	private static final int FIRST_PORT = WebConnector.DEFAULT_HTTP_PORT;
+	private static final Pattern OPERATION_LINE = Pattern
+			.compile("contactservice_endpoint_operations_total\\{endpoint=\"([^\"]+)\",operation=\"([^\"]+)\"\\} (\\d+)");
+
+	private final int nodeCount = Integer.getInteger("loadtest.nodes", 3);
+	private final int userCount = Integer.getInteger("loadtest.users", 1000);
+	private final int groupCount = Integer.getInteger("loadtest.groups", 50);
+	private final int rate = Integer.getInteger("loadtest.rate", 200);
+	private final int duration = Integer.getInteger("loadtest.duration", 60);
+	private final int threads = Integer.getInteger("loadtest.threads", 64);
+
+	private List<PastryNodeImpl> nodes;
+	private final List<WebConnector> connectors = new ArrayList<>();
+	private final List<UserAgentImpl> users = new ArrayList<>();
+	private final List<String> groups = new ArrayList<>();
+	private final List<Integer> groupOwners = new ArrayList<>();
+
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts the nodes, one contact service and one web connector per node, and registers the synthetic users.
+	 *
+	 * @throws Exception If the network cannot be started.
+	 */
+	@Before
+	public void startNetwork() throws Exception {
+		Properties prop = new Properties();
+		prop.load(new FileInputStream("etc/i5.las2peer.services.contactService.ContactService.properties"));
+		String passContact = prop.getProperty("contactStorerAgentPW");
+
+		nodes = TestSuite.launchNetwork(nodeCount, STORAGE_MODE.MEMORY, true);
+		UserAgentImpl agentContact = UserAgentImpl.createUserAgent(passContact);
+		agentContact.unlock(passContact);
+		agentContact.setLoginName(prop.getProperty("contactStorerAgentName"));
+		nodes.get(0).storeAgent(agentContact);
+
+		for (int i = 0; i < nodes.size(); i++) {
+			PastryNodeImpl node = nodes.get(i);
+			ServiceAgentImpl service = ServiceAgentImpl.createServiceAgent(
+					ServiceNameVersion.fromString("i5.las2peer.services.contactService.ContactService@0.2.4"), "a pass");
+			service.unlock("a pass");
+			ServiceAgentImpl userInformation = ServiceAgentImpl.createServiceAgent(ServiceNameVersion
+					.fromString("i5.las2peer.services.userInformationService.UserInformationService@0.2.5"), "a pass");
+			userInformation.unlock("a pass");
+			node.registerReceiver(service);
+			node.registerReceiver(userInformation);
+
+			WebConnector connector = new WebConnector(true, FIRST_PORT + i, false, 1000);
+			connector.setLogStream(new PrintStream(new ByteArrayOutputStream()));
+			connector.start(node);
+			connectors.add(connector);
+		}
+		Thread.sleep(1000); // wait a second for the connectors to become ready
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < userCount; i++) {
+			UserAgentImpl user = UserAgentImpl.createUserAgent("pass" + i);
+			user.unlock("pass" + i);
+			user.setLoginName("loaduser" + i);
+			nodes.get(i % nodes.size()).storeAgent(user);
+			users.add(user);
+		}
+		System.out.println("Registered " + userCount + " users in " + (System.currentTimeMillis() - start) + " ms");
+
+		for (int i = 0; i < groupCount; i++) {
+			int owner = i % users.size();
+			ClientResponse response = client(owner).sendRequest("POST", MAIN_PATH + "groups/loadgroup" + i, "");
+			if (response.getHttpCode() == 200) {
+				groups.add("loadgroup" + i);
+				groupOwners.add(owner);
+			}
+		}
+	}
+
+	/**
+	 * Stops the connectors and nodes.
+	 *
+	 * @throws Exception If shutting down fails.
+	 */
+	@After
+	public void shutDownNetwork() throws Exception {
+		for (WebConnector connector : connectors) {
+			connector.stop();
+		}
+		for (PastryNodeImpl node : nodes) {
+			node.shutDown();
+		}
+	}
+
+	/**
+	 * Runs the mixed workload at the configured rate and prints the report.
+	 *
+	 * @throws Exception If the workload cannot be run.
+	 */
+	@Test
+	public void testMixedWorkload() throws Exception {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		ticker.scheduleAtFixedRate(() -> {
+			// latency is measured from the intended start, so a saturated node cannot hide its queueing delay
+			long intended = System.nanoTime();
+			workers.execute(() -> runRandomRequest(intended));
+		}, 0, intervalNanos, TimeUnit.NANOSECONDS);
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		ticker.shutdownNow();
+		workers.shutdown();
+		workers.awaitTermination(2, TimeUnit.MINUTES);
+		double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+		String report = report(seconds);
+		System.out.println(report);
+		File out = new File("export/loadtest/report.txt");
+		out.getParentFile().mkdirs();
+		Files.write(out.toPath(), report.getBytes(StandardCharsets.UTF_8));
+
+		long total = latencies.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+		assertTrue("No request was sent", total > 0);
+	}
+
+	private void runRandomRequest(long intended) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int userIndex = random.nextInt(users.size());
+		MiniClient c = client(userIndex);
+		String other = "loaduser" + random.nextInt(users.size());
+		int roll = random.nextInt(100);
+		String endpoint;
+		ClientResponse response;
+		if (roll < 25) {
+			endpoint = "getContacts";
+			response = c.sendRequest("GET", MAIN_PATH, "");
+		} else if (roll < 40) {
+			endpoint = "addContact";
+			response = c.sendRequest("POST", MAIN_PATH + other, "");
+		} else if (roll < 45) {
+			endpoint = "removeContact";
+			response = c.sendRequest("DELETE", MAIN_PATH + other, "");
+		} else if (roll < 55) {
+			endpoint = "getGroups";
+			response = c.sendRequest("GET", MAIN_PATH + "groups", "");
+		} else if (roll < 65 && !groups.isEmpty()) {
+			int g = random.nextInt(groups.size());
+			endpoint = "getGroupMember";
+			response = client(groupOwners.get(g)).sendRequest("GET", MAIN_PATH + "groups/" + groups.get(g) + "/member",
+					"");
+		} else if (roll < 70 && !groups.isEmpty()) {
+			int g = random.nextInt(groups.size());
+			endpoint = "addGroupMember";
+			response = client(groupOwners.get(g)).sendRequest("POST",
+					MAIN_PATH + "groups/" + groups.get(g) + "/member/" + other, "");
+		} else if (roll < 85) {
+			endpoint = "getAddressBook";
+			response = c.sendRequest("GET", MAIN_PATH + "addressbook", "");
+		} else if (roll < 90) {
+			endpoint = "addToAddressBook";
+			response = c.sendRequest("POST", MAIN_PATH + "addressbook", "");
+		} else {
+			endpoint = "getUserInformation";
+			response = c.sendRequest("GET", MAIN_PATH + "user/" + other, "");
+		}
+		latencies.computeIfAbsent(endpoint, k -> new LatencyHistogram()).recordNanos(System.nanoTime() - intended);
+		// 400/404 are expected answers for duplicates and non-members, only server errors count as failures
+		if (response == null || response.getHttpCode() >= 500) {
+			failures.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+		}
+	}
+
+	private MiniClient client(int userIndex) {
+		// spread the users over the nodes, every user always talks to the same node
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connectors.get(userIndex % connectors.size()).getHttpEndpoint());
+		c.setLogin(users.get(userIndex).getIdentifier(), "pass" + userIndex);
+		return c;
+	}
+
+	private String report(double seconds) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		long total = latencies.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+		sb.append(String.format("Load test: %d nodes, %d users, %d groups, target %d req/s, %.1f s%n", nodeCount,
+				userCount, groups.size(), rate, seconds));
+		sb.append(String.format("Throughput: %.1f req/s (%d requests)%n%n", total / seconds, total));
+		sb.append(String.format("%-20s %8s %8s %10s %10s %10s%n", "endpoint", "count", "failed", "req/s", "p50 ms",
+				"p99 ms"));
+		for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(latencies).entrySet()) {
+			LatencyHistogram h = e.getValue();
+			LongAdder failed = failures.get(e.getKey());
+			sb.append(String.format("%-20s %8d %8d %10.1f %10.1f %10.1f%n", e.getKey(), h.getCount(),
+					failed == null ? 0 : failed.sum(), h.getCount() / seconds, h.percentile(0.5) / 1000.0,
+					h.percentile(0.99) / 1000.0));
+		}
+
+		// storage operations as counted by the services, summed over all nodes
+		TreeMap<String, TreeMap<String, Long>> operations = new TreeMap<>();
+		MiniClient c = client(0);
+		for (WebConnector connector : connectors) {
+			c.setConnectorEndpoint(connector.getHttpEndpoint());
+			ClientResponse response = c.sendRequest("GET", MAIN_PATH + "metrics", "");
+			assertEquals(200, response.getHttpCode());
+			Matcher m = OPERATION_LINE.matcher(response.getResponse());
+			while (m.find()) {
+				operations.computeIfAbsent(m.group(1), k -> new TreeMap<>()).merge(m.group(2),
+						Long.parseLong(m.group(3)), Long::sum);
+			}
+		}
+		sb.append(String.format("%nStorage operations per endpoint (all nodes):%n"));
+		for (Map.Entry<String, TreeMap<String, Long>> e : operations.entrySet()) {
+			sb.append(String.format("%-40s %s%n", e.getKey(), e.getValue()));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,38 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testAgentBucket() {
+		RateLimiter limiter = new RateLimiter(100);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, limiter.acquire("adam", 1, 1, 5, 1000, 1000));
+		}
+		long wait = limiter.acquire("adam", 1, 1, 5, 1000, 1000);
+		assertTrue(wait > 0 && wait <= 1_000_000_000L);
+		// other agents have their own bucket
+		assertEquals(0, limiter.acquire("eve", 1, 1, 5, 1000, 1000));
+	}
+
+	@Test
+	public void testCost() {
+		RateLimiter limiter = new RateLimiter(100);
+		assertEquals(0, limiter.acquire("adam", 4, 1, 5, 1000, 1000));
+		assertTrue(limiter.acquire("adam", 4, 1, 5, 1000, 1000) > 0);
+		assertEquals(0, limiter.acquire("adam", 1, 1, 5, 1000, 1000));
+	}
+
+	@Test
+	public void testGlobalBucketRefundsAgent() {
+		RateLimiter limiter = new RateLimiter(100);
+		assertEquals(0, limiter.acquire("adam", 3, 1, 5, 1, 3));
+		assertTrue(limiter.acquire("eve", 3, 1, 5, 1, 3) > 0);
+		// eve's tokens were given back when the global bucket rejected her, 0 disables the global bucket
+		assertEquals(0, limiter.acquire("eve", 5, 1, 5, 0, 0));
+	}
+}
@@ -0,0 +1,46 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RequestTraceTest {
+
+	@Test
+	public void testTasksRecordIntoTraceOfRequest() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			RequestTrace trace = RequestTrace.begin();
+			executor.submit(RequestTrace.wrap(() -> {
+				RequestTrace.record("requestEnvelope", 5);
+				return null;
+			})).get();
+			RequestTrace.wrap(executor).execute(() -> RequestTrace.record("requestEnvelope", 7));
+			executor.shutdown();
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+			assertEquals(trace, RequestTrace.end());
+			assertEquals(Long.valueOf(2), trace.getCounts().get("requestEnvelope"));
+			assertEquals(12, trace.getNanos("requestEnvelope"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWorkerDoesNotKeepTrace() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RequestTrace.begin();
+			executor.submit(RequestTrace.wrap(() -> null)).get();
+			RequestTrace.end();
+			assertNull(executor.submit(RequestTrace::end).get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
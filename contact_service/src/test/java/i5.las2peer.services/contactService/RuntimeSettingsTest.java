@@ -0,0 +1,88 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.minidev.json.JSONObject;
+
+public class RuntimeSettingsTest {
+
+	private final long[] size = { 100 };
+	private final long[] ttl = { 5000 };
+	private final boolean[] enabled = { true };
+	private final ExpiringCache<String, String> cache = new ExpiringCache<>(100);
+	private RuntimeSettings settings;
+
+	@Before
+	public void setUp() {
+		settings = new RuntimeSettings();
+		settings.add("cacheSize", 1, 1000, () -> size[0], v -> {
+			size[0] = v;
+			cache.setMaxSize((int) v);
+		});
+		settings.add("cacheTtlMs", 0, 60000, () -> ttl[0], v -> ttl[0] = v);
+		settings.addFlag("enabled", () -> enabled[0], v -> enabled[0] = v);
+	}
+
+	@Test
+	public void testToJSON() {
+		JSONObject json = settings.toJSON();
+		assertEquals(100L, json.get("cacheSize"));
+		assertEquals(5000L, json.get("cacheTtlMs"));
+		assertEquals(true, json.get("enabled"));
+	}
+
+	@Test
+	public void testApplyResizesCache() {
+		for (int i = 0; i < 100; i++) {
+			cache.put("k" + i, "v", 60000);
+		}
+		Map<String, Object> values = new HashMap<>();
+		values.put("cacheSize", 10);
+		values.put("enabled", false);
+		Map<String, Object> previous = settings.apply(values);
+		assertEquals(100L, previous.get("cacheSize"));
+		assertEquals(true, previous.get("enabled"));
+		assertEquals(10, size[0]);
+		assertFalse(enabled[0]);
+		assertTrue(cache.size() <= 10);
+	}
+
+	@Test
+	public void testInvalidValueChangesNothing() {
+		Map<String, Object> values = new HashMap<>();
+		values.put("cacheTtlMs", 1000);
+		values.put("cacheSize", 0);
+		assertRejected(values);
+		values.put("cacheSize", 1.5);
+		assertRejected(values);
+		values.put("cacheSize", "10");
+		assertRejected(values);
+		values.remove("cacheSize");
+		values.put("enabled", 1);
+		assertRejected(values);
+		values.remove("enabled");
+		values.put("unknown", 1);
+		assertRejected(values);
+		assertEquals(5000, ttl[0]);
+		assertEquals(100, size[0]);
+		assertTrue(enabled[0]);
+	}
+
+	private void assertRejected(Map<String, Object> values) {
+		try {
+			settings.apply(values);
+			fail("Expected IllegalArgumentException for " + values);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package i5.las2peer.services.contactService;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -29,6 +30,9 @@ import i5.las2peer.security.ServiceAgentImpl;
 import i5.las2peer.security.UserAgentImpl;
 import i5.las2peer.testing.MockAgentFactory;
 import i5.las2peer.testing.TestSuite;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.parser.JSONParser;
 
 /**
  * Example Test Class demonstrating a basic JUnit test structure.
@@ -771,6 +775,239 @@ public class ServiceTest {
 		}
 	}
 
+	@Test
+	public void testMetrics() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			c.sendRequest("POST", mainPath + "eve1st", "");
+			c.sendRequest("GET", mainPath, "", "text/plain", "application/json", new HashMap<String, String>());
+
+			ClientResponse result = c.sendRequest("GET", mainPath + "metrics", "");
+			assertEquals(200, result.getHttpCode());
+			String metrics = result.getResponse();
+			assertTrue(metrics.contains(
+					"contactservice_request_duration_seconds_count{endpoint=\"ContactResource.addContact\"} 1"));
+			assertTrue(metrics.contains("contactservice_request_duration_seconds{endpoint=\"ContactResource.getContacts\""));
+			assertTrue(metrics.contains("contactservice_operations_total{operation=\"requestEnvelope\"}"));
+			assertTrue(metrics.contains("contactservice_operations_total{operation=\"storeEnvelope\"}"));
+			assertTrue(metrics.contains("contactservice_operations_total{operation=\"fetchAgent\"}"));
+			System.out.println("Result of 'testMetrics': " + metrics.trim());
+
+			result = c.sendRequest("GET", mainPath + "metrics/slow", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().trim().startsWith("["));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testSuggestions() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentEve.getIdentifier(), passEve);
+			c.sendRequest("POST", mainPath + "abel", "");
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			c.sendRequest("POST", mainPath + "eve1st", "");
+
+			ClientResponse result = c.sendRequest("GET", mainPath + "suggestions?limit=5", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().contains(agentAbel.getIdentifier()));
+			assertTrue(result.getResponse().contains("\"mutualContacts\":1"));
+			assertFalse(result.getResponse().contains(agentEve.getIdentifier()));
+			System.out.println("Result of 'testSuggestions': " + result.getResponse().trim());
+
+			// adding the suggested user invalidates the cached suggestions
+			c.sendRequest("POST", mainPath + "abel", "");
+			result = c.sendRequest("GET", mainPath + "suggestions", "");
+			assertEquals(200, result.getHttpCode());
+			assertFalse(result.getResponse().contains(agentAbel.getIdentifier()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testGroupSuggestions() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			// listing the groups makes the memberships of adam known to the node
+			ClientResponse result = c.sendRequest("GET", mainPath + "groups", "");
+			assertEquals(200, result.getHttpCode());
+			result = c.sendRequest("POST", mainPath + "groups/suggestionGroup", "");
+			assertEquals(200, result.getHttpCode());
+			result = c.sendRequest("POST", mainPath + "groups/suggestionGroup/member/abel", "");
+			assertEquals(200, result.getHttpCode());
+
+			result = c.sendRequest("GET", mainPath + "suggestions", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().contains(agentAbel.getIdentifier()));
+			assertTrue(result.getResponse().contains("\"sharedGroups\":1"));
+			System.out.println("Result of 'testGroupSuggestions': " + result.getResponse().trim());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testChanges() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			ClientResponse result = c.sendRequest("GET", mainPath + "changes", "");
+			assertEquals(200, result.getHttpCode());
+			JSONObject first = (JSONObject) new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE)
+					.parse(result.getResponse());
+			assertEquals(true, first.get("resync"));
+			String version = (String) first.get("version");
+
+			c.sendRequest("POST", mainPath + "eve1st", "");
+			c.sendRequest("DELETE", mainPath + "eve1st", "");
+			c.setLogin(agentEve.getIdentifier(), passEve);
+			c.sendRequest("POST", mainPath + "abel", "");
+
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			result = c.sendRequest("GET", mainPath + "changes?since=" + version, "");
+			assertEquals(200, result.getHttpCode());
+			JSONObject second = (JSONObject) new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE)
+					.parse(result.getResponse());
+			System.out.println("Result of 'testChanges': " + result.getResponse().trim());
+			assertEquals(false, second.get("resync"));
+			JSONArray changes = (JSONArray) second.get("changes");
+			// eve's change is not visible to adam
+			assertEquals(2, changes.size());
+			assertEquals("add", ((JSONObject) changes.get(0)).get("op"));
+			assertEquals("remove", ((JSONObject) changes.get(1)).get("op"));
+			assertEquals(agentEve.getIdentifier(), ((JSONObject) changes.get(1)).get("id"));
+
+			result = c.sendRequest("GET", mainPath + "changes?since=" + second.get("version"), "");
+			assertTrue(result.getResponse().contains("\"changes\":[]"));
+
+			result = c.sendRequest("GET", mainPath + "changes?since=unknown:1", "");
+			assertTrue(result.getResponse().contains("\"resync\":true"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testEvents() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			ClientResponse result = c.sendRequest("GET", mainPath + "events", "");
+			assertEquals(200, result.getHttpCode());
+			String stream = result.getResponse();
+			assertTrue(stream.contains(": heartbeat"));
+			String lastEventId = stream.substring(stream.indexOf("id: ") + 4, stream.indexOf('\n', stream.indexOf("id: ")));
+
+			c.sendRequest("POST", mainPath + "eve1st", "");
+			HashMap<String, String> headers = new HashMap<String, String>();
+			headers.put("Last-Event-ID", lastEventId);
+			result = c.sendRequest("GET", mainPath + "events", "", "text/plain", "text/event-stream", headers);
+			assertEquals(200, result.getHttpCode());
+			stream = result.getResponse();
+			System.out.println("Result of 'testEvents': " + stream.trim());
+			assertTrue(stream.contains("event: contact"));
+			assertTrue(stream.contains(agentEve.getIdentifier()));
+
+			// an unknown subscription has to resync
+			headers.put("Last-Event-ID", "unknown:1");
+			result = c.sendRequest("GET", mainPath + "events", "", "text/plain", "text/event-stream", headers);
+			assertTrue(result.getResponse().contains("event: resync"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testFieldProjection() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			c.sendRequest("POST", mainPath + "abel", "");
+
+			ClientResponse result = c.sendRequest("GET", mainPath + "?fields=id", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().contains(agentAbel.getIdentifier()));
+			assertFalse(result.getResponse().contains("\"abel\""));
+			System.out.println("Result of 'testFieldProjection': " + result.getResponse().trim());
+
+			result = c.sendRequest("GET", mainPath + "?fields=id,name", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().contains("\"abel\""));
+
+			result = c.sendRequest("GET", mainPath + "?fields=name", "");
+			assertEquals(400, result.getHttpCode());
+			result = c.sendRequest("GET", mainPath + "?fields=id,password", "");
+			assertEquals(400, result.getHttpCode());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testExpandProfile() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			c.sendRequest("POST", mainPath + "abel", "");
+
+			ClientResponse result = c.sendRequest("GET", mainPath + "?expand=profile", "");
+			assertEquals(200, result.getHttpCode());
+			assertTrue(result.getResponse().contains(agentAbel.getIdentifier()));
+			assertTrue(result.getResponse().contains("\"name\":\"abel\""));
+			System.out.println("Result of 'testExpandProfile': " + result.getResponse().trim());
+
+			result = c.sendRequest("GET", mainPath + "?expand=groups", "");
+			assertEquals(400, result.getHttpCode());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
+	@Test
+	public void testAdminSettingsRequireAdmin() {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+
+		try {
+			// adminAgents is empty in the test configuration
+			c.setLogin(agentAdam.getIdentifier(), passAdam);
+			ClientResponse result = c.sendRequest("GET", mainPath + "admin/settings", "");
+			assertEquals(403, result.getHttpCode());
+			result = c.sendRequest("POST", mainPath + "admin/settings", "{\"profileCacheSize\": 10}");
+			assertEquals(403, result.getHttpCode());
+			System.out.println("Result of 'testAdminSettingsRequireAdmin': " + result.getResponse().trim());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Exception: " + e);
+		}
+	}
+
 	// helper method
 	public void createEnvelope(String identifier, AgentImpl owner) {
 		ContactContainer cc = new ContactContainer();
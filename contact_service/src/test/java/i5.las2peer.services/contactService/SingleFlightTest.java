@@ -0,0 +1,149 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void testConcurrentCallersShareOneLoad() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		SingleFlight<String, String> flight = new SingleFlight<>(metrics, "test", IllegalStateException.class);
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(pool.submit(() -> flight.execute("addressbook", () -> {
+					loads.incrementAndGet();
+					release.await();
+					return "content";
+				}, 5000)));
+			}
+			// give all callers time to join the load in flight
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<String> result : results) {
+				assertEquals("content", result.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, loads.get());
+			assertEquals(7, metrics.getCounter("test_coalesced"));
+			assertEquals(0, flight.inFlight());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSharedFailureIsPassedToWaiters() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		SingleFlight<String, String> flight = new SingleFlight<>(metrics, "test", IllegalStateException.class);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger ownLoads = new AtomicInteger();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> leader = pool.submit(() -> flight.execute("groups", () -> {
+				started.countDown();
+				release.await();
+				throw new IllegalStateException("no such envelope");
+			}, 5000));
+			started.await();
+			new Thread(() -> {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				release.countDown();
+			}).start();
+			try {
+				flight.execute("groups", () -> {
+					ownLoads.incrementAndGet();
+					return "own";
+				}, 5000);
+				fail("Expected the shared failure");
+			} catch (IllegalStateException e) {
+				assertEquals("no such envelope", e.getMessage());
+			}
+			assertEquals(0, ownLoads.get());
+			assertEquals(1, metrics.getCounter("test_shared_failures"));
+			try {
+				leader.get();
+			} catch (Exception e) {
+				// the leader sees its own failure
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testWaitersLoadThemselvesAfterOtherFailures() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		SingleFlight<String, String> flight = new SingleFlight<>(metrics, "test", IllegalStateException.class);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> leader = pool.submit(() -> flight.execute("groups", () -> {
+				started.countDown();
+				release.await();
+				throw new IllegalArgumentException("agent of the leader cannot read");
+			}, 5000));
+			started.await();
+			new Thread(() -> {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				release.countDown();
+			}).start();
+			assertEquals("own", flight.execute("groups", () -> "own", 5000));
+			assertEquals(0, metrics.getCounter("test_shared_failures"));
+			assertEquals(1, metrics.getCounter("test_fallbacks"));
+			try {
+				leader.get();
+			} catch (Exception e) {
+				// the leader sees its own failure
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFallbackWhenSharedLoadTimesOut() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		SingleFlight<String, String> flight = new SingleFlight<>(metrics, "test", IllegalStateException.class);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			pool.submit(() -> flight.execute("groups", () -> {
+				started.countDown();
+				release.await();
+				return "shared";
+			}, 5000));
+			started.await();
+			assertEquals("own", flight.execute("groups", () -> "own", 50));
+			assertEquals(1, metrics.getCounter("test_fallbacks"));
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+	}
+}
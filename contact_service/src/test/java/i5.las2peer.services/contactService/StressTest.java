@@ -0,0 +1,284 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import i5.las2peer.api.p2p.ServiceNameVersion;
+import i5.las2peer.connectors.webConnector.WebConnector;
+import i5.las2peer.connectors.webConnector.client.ClientResponse;
+import i5.las2peer.connectors.webConnector.client.MiniClient;
+import i5.las2peer.p2p.PastryNodeImpl;
+import i5.las2peer.persistency.SharedStorage.STORAGE_MODE;
+import i5.las2peer.security.ServiceAgentImpl;
+import i5.las2peer.security.UserAgentImpl;
+import i5.las2peer.testing.TestSuite;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+/**
+ * Concurrency stress test on the local node setup of {@link ServiceTest}. Hundreds of agents mutate the shared
+ * envelopes at the same time: the address book, the contact list of a single agent and the group registry. Every
+ * scenario checks afterwards that no update was lost and reports throughput, lost updates and the storage conflicts
+ * the service counted.
+ *
+ * Not part of the regular test run. Start it with <code>./gradlew stressTest</code> and tune it with the system
+ * properties <code>stresstest.users</code>, <code>stresstest.contacts</code> (contacts added in parallel by one
+ * agent, more than the per-agent rate limit allows are answered with 429) and <code>stresstest.threads</code>.
+ */
+public class StressTest {
+
+	private static final String MAIN_PATH = "contactservice/";
+	private static final Pattern METRIC_LINE = Pattern.compile("^contactservice_(\\w+) (\\d+)$", Pattern.MULTILINE);
+
+	private final int userCount = Integer.getInteger("stresstest.users", 200);
+	private final int contactCount = Integer.getInteger("stresstest.contacts", 30);
+	private final int threads = Integer.getInteger("stresstest.threads", 64);
+
+	private PastryNodeImpl node;
+	private WebConnector connector;
+	private final List<UserAgentImpl> users = new ArrayList<>();
+	private final StringBuilder report = new StringBuilder();
+
+	/**
+	 * Starts the node with the contact service and a web connector and registers the synthetic users.
+	 *
+	 * @throws Exception If the node cannot be started.
+	 */
+	@Before
+	public void startServer() throws Exception {
+		Properties prop = new Properties();
+		prop.load(new FileInputStream("etc/i5.las2peer.services.contactService.ContactService.properties"));
+		String passContact = prop.getProperty("contactStorerAgentPW");
+
+		node = TestSuite.launchNetwork(1, STORAGE_MODE.MEMORY, true).get(0);
+		UserAgentImpl agentContact = UserAgentImpl.createUserAgent(passContact);
+		agentContact.unlock(passContact);
+		agentContact.setLoginName(prop.getProperty("contactStorerAgentName"));
+		node.storeAgent(agentContact);
+
+		ServiceAgentImpl service = ServiceAgentImpl.createServiceAgent(
+				ServiceNameVersion.fromString("i5.las2peer.services.contactService.ContactService@0.2.4"), "a pass");
+		service.unlock("a pass");
+		ServiceAgentImpl userInformation = ServiceAgentImpl.createServiceAgent(ServiceNameVersion
+				.fromString("i5.las2peer.services.userInformationService.UserInformationService@0.2.5"), "a pass");
+		userInformation.unlock("a pass");
+		node.registerReceiver(service);
+		node.registerReceiver(userInformation);
+
+		connector = new WebConnector(true, WebConnector.DEFAULT_HTTP_PORT, false, 1000);
+		connector.setLogStream(new PrintStream(new ByteArrayOutputStream()));
+		connector.start(node);
+		Thread.sleep(1000); // wait a second for the connector to become ready
+
+		for (int i = 0; i < userCount; i++) {
+			UserAgentImpl user = UserAgentImpl.createUserAgent("pass" + i);
+			user.unlock("pass" + i);
+			user.setLoginName("stressuser" + i);
+			node.storeAgent(user);
+			users.add(user);
+		}
+	}
+
+	/**
+	 * Stops the connector and the node and writes the report.
+	 *
+	 * @throws Exception If shutting down fails.
+	 */
+	@After
+	public void shutDownServer() throws Exception {
+		connector.stop();
+		node.shutDown();
+		System.out.println(report);
+		File out = new File("export/stresstest/report.txt");
+		out.getParentFile().mkdirs();
+		Files.write(out.toPath(), report.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * All agents add themselves to the address book at once, then every second agent removes itself again.
+	 *
+	 * @throws Exception If the requests cannot be sent.
+	 */
+	@Test
+	public void testAddressBookUpdatesAreNotLost() throws Exception {
+		Map<String, Long> before = metrics();
+		runConcurrently("addToAddressBook", userCount,
+				i -> client(i).sendRequest("POST", MAIN_PATH + "addressbook", ""), before);
+		before = metrics();
+		runConcurrently("removeFromAddressBook", userCount / 2,
+				i -> client(2 * i).sendRequest("DELETE", MAIN_PATH + "addressbook", ""), before);
+
+		ClientResponse response = client(0).sendRequest("GET", MAIN_PATH + "addressbook?fields=id", "");
+		assertEquals(200, response.getHttpCode());
+		Set<String> stored = new HashSet<>();
+		for (Object id : (JSONArray) JSONValue.parse(response.getResponse())) {
+			stored.add(String.valueOf(id));
+		}
+		Set<String> expected = new HashSet<>();
+		for (int i = 1; i < userCount; i += 2) {
+			expected.add(users.get(i).getIdentifier());
+		}
+		reportLost("address book", expected, stored);
+		assertEquals(expected, stored);
+	}
+
+	/**
+	 * One agent adds many contacts at once, like several tabs or a double click sending the same agent's mutations
+	 * in parallel.
+	 *
+	 * @throws Exception If the requests cannot be sent.
+	 */
+	@Test
+	public void testContactUpdatesOfOneAgentAreNotLost() throws Exception {
+		int contacts = Math.min(contactCount, userCount - 1);
+		Map<String, Long> before = metrics();
+		runConcurrently("addContact", contacts,
+				i -> client(0).sendRequest("POST", MAIN_PATH + "stressuser" + (i + 1), ""), before);
+
+		ClientResponse response = client(0).sendRequest("GET", MAIN_PATH + "?fields=id", "");
+		assertEquals(200, response.getHttpCode());
+		Set<String> stored = new HashSet<>();
+		for (Object id : (JSONArray) JSONValue.parse(response.getResponse())) {
+			stored.add(String.valueOf(id));
+		}
+		Set<String> expected = new HashSet<>();
+		for (int i = 1; i <= contacts; i++) {
+			expected.add(users.get(i).getIdentifier());
+		}
+		reportLost("contact list", expected, stored);
+		assertEquals(expected, stored);
+	}
+
+	/**
+	 * All agents create a group at once, so the shards of the group registry are updated concurrently.
+	 *
+	 * @throws Exception If the requests cannot be sent.
+	 */
+	@Test
+	public void testGroupRegistryUpdatesAreNotLost() throws Exception {
+		Map<String, Long> before = metrics();
+		runConcurrently("addGroup", userCount,
+				i -> client(i).sendRequest("POST", MAIN_PATH + "groups/stressgroup" + i, ""), before);
+		// the registry is updated in the background
+		long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+		while (metrics().getOrDefault("group_list_pending", 0L) > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+
+		Set<String> expected = new HashSet<>();
+		Set<String> stored = ConcurrentHashMap.newKeySet();
+		for (int i = 0; i < userCount; i++) {
+			expected.add("stressgroup" + i);
+		}
+		runConcurrently("getGroups", userCount, i -> {
+			ClientResponse response = client(i).sendRequest("GET", MAIN_PATH + "groups", "");
+			if (response.getHttpCode() == 200) {
+				JSONObject groups = (JSONObject) JSONValue.parse(response.getResponse());
+				if (groups.containsValue("stressgroup" + i)) {
+					stored.add("stressgroup" + i);
+				}
+			}
+			return response;
+		}, metrics());
+		reportLost("group registry", expected, stored);
+		assertEquals(expected, stored);
+	}
+
+	/**
+	 * Sends requests from all threads at once and reports the throughput, the response codes and the storage
+	 * conflicts the service counted meanwhile.
+	 */
+	private void runConcurrently(String name, int count, IntFunction<ClientResponse> request,
+			Map<String, Long> before) throws Exception {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			workers.execute(() -> {
+				try {
+					start.await();
+					ClientResponse response = request.apply(index);
+					int status = response == null ? -1 : response.getHttpCode();
+					statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		workers.shutdown();
+		workers.awaitTermination(5, TimeUnit.MINUTES);
+		double seconds = (System.nanoTime() - begin) / 1_000_000_000.0;
+
+		Map<String, Long> after = metrics();
+		long conflicts = delta(before, after, "envelope_store_failures_total")
+				+ delta(before, after, "write_behind_retries_total") + delta(before, after, "group_list_retries_total");
+		TreeMap<Integer, Long> codes = new TreeMap<>();
+		statuses.forEach((status, n) -> codes.put(status, n.sum()));
+		report.append(String.format("%-22s %5d requests %8.1f req/s  status %s  storage conflicts %d (%.1f%%)%n",
+				name, count, count / seconds, codes, conflicts, count == 0 ? 0.0 : 100.0 * conflicts / count));
+	}
+
+	private void reportLost(String name, Set<String> expected, Set<String> stored) {
+		Set<String> lost = new HashSet<>(expected);
+		lost.removeAll(stored);
+		Set<String> unexpected = new HashSet<>(stored);
+		unexpected.removeAll(expected);
+		report.append(String.format("%-22s %5d lost updates (%.1f%%), %d unexpected entries%n", name, lost.size(),
+				expected.isEmpty() ? 0.0 : 100.0 * lost.size() / expected.size(), unexpected.size()));
+	}
+
+	private Map<String, Long> metrics() throws IOException {
+		ClientResponse response = client(0).sendRequest("GET", MAIN_PATH + "metrics", "");
+		assertEquals(200, response.getHttpCode());
+		Map<String, Long> metrics = new TreeMap<>();
+		Matcher m = METRIC_LINE.matcher(response.getResponse());
+		while (m.find()) {
+			metrics.put(m.group(1), Long.parseLong(m.group(2)));
+		}
+		return metrics;
+	}
+
+	private static long delta(Map<String, Long> before, Map<String, Long> after, String name) {
+		return after.getOrDefault(name, 0L) - before.getOrDefault(name, 0L);
+	}
+
+	private MiniClient client(int userIndex) {
+		MiniClient c = new MiniClient();
+		c.setConnectorEndpoint(connector.getHttpEndpoint());
+		c.setLogin(users.get(userIndex).getIdentifier(), "pass" + userIndex);
+		return c;
+	}
+}
@@ -0,0 +1,103 @@
+package i5.las2peer.services.contactService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindLogTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private Path dir;
+	private Path file;
+
+	@Before
+	public void createDirectory() throws Exception {
+		dir = Files.createTempDirectory("write-behind");
+		file = dir.resolve("mutations.log");
+	}
+
+	@After
+	public void shutDown() throws Exception {
+		executor.shutdownNow();
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(dir.resolve("mutations.log.tmp"));
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testMutationsAreWrittenAndRetried() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		Set<String> stored = Collections.synchronizedSet(new HashSet<>());
+		AtomicInteger attempts = new AtomicInteger();
+		WriteBehindLog log = new WriteBehindLog(file, metrics, (envelopeId, entries) -> {
+			if (attempts.incrementAndGet() < 2) {
+				throw new Exception("storage not available");
+			}
+			WriteBehindLog.apply(entries, stored);
+		}, 0, 10, 100);
+		log.open();
+
+		log.append("contacts_a", WriteBehindLog.ADD, "b", executor);
+		log.append("contacts_a", WriteBehindLog.ADD, "c", executor);
+		log.append("contacts_a", WriteBehindLog.REMOVE, "b", executor);
+		waitUntilEmpty(log);
+		assertEquals(Collections.singleton("c"), stored);
+		assertTrue(metrics.getCounter("write_behind_retries") >= 1);
+		log.close();
+		// applied mutations are removed from the log
+		assertEquals(0, Files.size(file));
+	}
+
+	@Test
+	public void testPendingMutationsAreReplayed() throws Exception {
+		ServiceMetrics metrics = new ServiceMetrics();
+		WriteBehindLog log = new WriteBehindLog(file, metrics, (envelopeId, entries) -> {
+			throw new Exception("storage not available");
+		}, 0, 60000, 60000);
+		log.open();
+		log.append("addressbook", WriteBehindLog.ADD, "a", executor);
+		log.append("addressbook", WriteBehindLog.ADD, "b", executor);
+		log.close();
+		// a line torn by a crash
+		Files.write(file, "1f2e\t3\taddressbook\tad".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		Set<String> stored = Collections.synchronizedSet(new HashSet<>());
+		WriteBehindLog replayed = new WriteBehindLog(file, metrics,
+				(envelopeId, entries) -> WriteBehindLog.apply(entries, stored), 0, 10, 100);
+		assertEquals(2, replayed.open());
+		List<WriteBehindLog.Entry> pending = replayed.getPending("addressbook");
+		assertEquals(2, pending.size());
+		Set<String> read = new HashSet<>();
+		replayed.applyPending("addressbook", read);
+		assertEquals(2, read.size());
+
+		replayed.append("addressbook", WriteBehindLog.REMOVE, "a", executor);
+		replayed.resume(executor);
+		waitUntilEmpty(replayed);
+		assertEquals(Collections.singleton("b"), stored);
+		replayed.close();
+	}
+
+	private static void waitUntilEmpty(WriteBehindLog log) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (log.size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, log.size());
+	}
+}